@@ -0,0 +1,79 @@
+package kpc.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures union and intersection over a whole directory of profiles, from a pair of team members up to 2000
+ * operands, both sequentially and with the parallel reduction.
+ *
+ * Every operand enables half of the universe. Results are not written anywhere, so only reading and combining the
+ * profiles is measured.
+ *
+ * @author Daniel Burton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryUnionBenchmark
+{
+    @Param({"2", "20", "200", "2000"})
+    public int operands;
+
+    @Param({"100", "1000", "20000"})
+    public int universe;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void writeProfiles() throws Exception
+    {
+        directory = SyntheticData.temporaryDirectory("kpc-directory");
+        SyntheticData.writeProfileDirectory(directory, operands, universe, universe / 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProfiles() throws Exception
+    {
+        SyntheticData.delete(directory);
+    }
+
+    @Benchmark
+    public Object computeUnion() throws Throwable
+    {
+        return Subjects.COMPUTE_UNION.invoke(calculation());
+    }
+
+    @Benchmark
+    public Object computeIntersection() throws Throwable
+    {
+        return Subjects.COMPUTE_INTERSECTION.invoke(calculation());
+    }
+
+    private Object calculation() throws Throwable
+    {
+        Object calculation = Subjects.NEW_DIRECTORY_CALCULATION.invoke(directory, false, (File) null);
+        Subjects.SET_PARALLEL.invoke(calculation, parallel);
+        return calculation;
+    }
+}
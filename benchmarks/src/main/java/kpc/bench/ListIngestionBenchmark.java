@@ -0,0 +1,69 @@
+package kpc.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a module list, in both the plain one-code-per-line format and the Challenge Bomb spreadsheet format.
+ * Lists are read both as module codes straight into a profile, and as text entries as is done for module names.
+ *
+ * @author Daniel Burton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListIngestionBenchmark
+{
+    @Param({"100", "1000", "5000", "20000"})
+    public int modules;
+
+    @Param({"false", "true"})
+    public boolean spreadsheet;
+
+    private File directory;
+    private Object creator;
+
+    @Setup(Level.Trial)
+    public void writeList() throws Throwable
+    {
+        directory = SyntheticData.temporaryDirectory("kpc-list");
+        File list = new File(directory, "modules.txt");
+        SyntheticData.writeModuleList(list, SyntheticData.chooseCodes(SyntheticData.random(0), modules, modules), spreadsheet);
+        creator = Subjects.NEW_CREATOR.invoke(list, false, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteList() throws Exception
+    {
+        SyntheticData.delete(directory);
+    }
+
+    @Benchmark
+    public Object buildProfile() throws Throwable
+    {
+        return Subjects.BUILD_PROFILE.invoke(creator);
+    }
+
+    @Benchmark
+    public Object readEntries() throws Throwable
+    {
+        return Subjects.READ_ENTRIES.invoke(creator);
+    }
+}
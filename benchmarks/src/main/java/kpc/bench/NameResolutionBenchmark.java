@@ -0,0 +1,77 @@
+package kpc.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures resolving module names to module codes against a synthetic set of module mappings, using a realistic mix
+ * of exact names, names in different case or without "The", and module codes given in place of names.
+ *
+ * @author Daniel Burton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameResolutionBenchmark
+{
+    private static final int QUERIES = 1024;
+
+    @Param({"100", "1000", "5000", "20000"})
+    public int modules;
+
+    private Object index;
+    private final String[] queries = new String[QUERIES];
+
+    @Setup(Level.Trial)
+    public void buildIndex() throws Throwable
+    {
+        ArrayList<String> ids = new ArrayList<String>(modules);
+        ArrayList<String> names = new ArrayList<String>(modules);
+        for(int i = 0; i < modules; i++)
+        {
+            ids.add(SyntheticData.code(i));
+            names.add(SyntheticData.name(i));
+        }
+        index = Subjects.NEW_NAME_INDEX.invoke(Subjects.NEW_MAPPINGS.invoke(ids, names));
+
+        Random random = SyntheticData.random(0);
+        for(int i = 0; i < QUERIES; i++)
+        {
+            int module = random.nextInt(modules);
+            switch(i % 4)
+            {
+                case 0 : queries[i] = SyntheticData.name(module);break;
+                case 1 : queries[i] = SyntheticData.name(module).toUpperCase();break;
+                case 2 : queries[i] = SyntheticData.name(module).replace("The ", "").replace(".", "");break;
+                default : queries[i] = SyntheticData.code(module);break;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void resolve(Blackhole blackhole) throws Throwable
+    {
+        for(String query : queries)
+            blackhole.consume(Subjects.RESOLVE.invoke(index, query));
+    }
+}
@@ -0,0 +1,69 @@
+package kpc.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a single profile into a Profile, from a file of 100 up to 20000 enabled modules, both as JSON and
+ * in the binary format.
+ *
+ * @author Daniel Burton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileReadBenchmark
+{
+    @Param({"100", "1000", "5000", "20000"})
+    public int modules;
+
+    @Param({"json", "binary"})
+    public String format;
+
+    private File directory;
+    private File profile;
+
+    @Setup(Level.Trial)
+    public void writeProfile() throws Throwable
+    {
+        directory = SyntheticData.temporaryDirectory("kpc-read");
+        profile = new File(directory, "profile.json");
+        SyntheticData.writeProfile(profile, SyntheticData.chooseCodes(SyntheticData.random(0), modules, modules));
+
+        if(format.equals("binary"))
+        {
+            File binary = new File(directory, "profile.kpcp");
+            Subjects.CONVERT.invoke(Subjects.NEW_CONVERTER.invoke(profile, binary, false));
+            profile = binary;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProfile() throws Exception
+    {
+        SyntheticData.delete(directory);
+    }
+
+    @Benchmark
+    public Object readProfile() throws Throwable
+    {
+        return Subjects.READ_PROFILE.invoke(profile);
+    }
+}
@@ -0,0 +1,68 @@
+package kpc.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures union, intersection and difference of two in-memory profiles.
+ *
+ * Each operand enables the given fraction of a universe of the given size, so the overlap between the two operands
+ * is roughly the square of that fraction.
+ *
+ * @author Daniel Burton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetAlgebraBenchmark
+{
+    @Param({"100", "1000", "5000", "20000"})
+    public int universe;
+
+    @Param({"10", "50", "90"})
+    public int percentEnabled;
+
+    private Object first;
+    private Object second;
+
+    @Setup(Level.Trial)
+    public void buildProfiles() throws Throwable
+    {
+        int count = universe * percentEnabled / 100;
+        first = Subjects.PROFILE_FROM_CODES.invoke(SyntheticData.chooseCodes(SyntheticData.random(1), universe, count));
+        second = Subjects.PROFILE_FROM_CODES.invoke(SyntheticData.chooseCodes(SyntheticData.random(2), universe, count));
+    }
+
+    @Benchmark
+    public Object union() throws Throwable
+    {
+        return Subjects.UNION.invoke(first, second);
+    }
+
+    @Benchmark
+    public Object intersection() throws Throwable
+    {
+        return Subjects.INTERSECTION.invoke(first, second);
+    }
+
+    @Benchmark
+    public Object difference() throws Throwable
+    {
+        return Subjects.DIFFERENCE.invoke(first, second);
+    }
+}
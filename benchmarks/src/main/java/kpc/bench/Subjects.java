@@ -0,0 +1,88 @@
+package kpc.bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Bridges the benchmarks to the calculator's classes.
+ *
+ * The calculator lives in the default package, which cannot be imported from a named package, while JMH refuses to
+ * generate benchmarks for classes in the default package. Every entry point is therefore looked up once by
+ * reflection and called through a MethodHandle, which the JIT inlines much like a direct call.
+ *
+ * @author Daniel Burton
+ */
+final class Subjects
+{
+    static final MethodHandle READ_PROFILE = method("ProfileCalculations", "readProfileFile", File.class);
+    static final MethodHandle PROFILE_FROM_CODES = method("Profile", "fromCodes", Collection.class);
+    static final MethodHandle UNION = method("Profile", "union", type("Profile"));
+    static final MethodHandle INTERSECTION = method("Profile", "intersection", type("Profile"));
+    static final MethodHandle DIFFERENCE = method("Profile", "difference", type("Profile"));
+    static final MethodHandle SIZE = method("Profile", "size");
+
+    static final MethodHandle NEW_CONVERTER = constructor("ProfileConverter", File.class, File.class, boolean.class);
+    static final MethodHandle CONVERT = method("ProfileConverter", "convert");
+
+    static final MethodHandle NEW_DIRECTORY_CALCULATION = constructor("ProfileCalculations", File.class, boolean.class, File.class);
+    static final MethodHandle SET_PARALLEL = method("ProfileCalculations", "setParallel", boolean.class);
+    static final MethodHandle COMPUTE_UNION = method("ProfileCalculations", "computeUnion");
+    static final MethodHandle COMPUTE_INTERSECTION = method("ProfileCalculations", "computeIntersection");
+
+    static final MethodHandle NEW_CREATOR = constructor("ProfileCreator", File.class, boolean.class, boolean.class);
+    static final MethodHandle BUILD_PROFILE = method("ProfileCreator", "buildProfile");
+    static final MethodHandle READ_ENTRIES = method("ProfileCreator", "readEntries");
+
+    static final MethodHandle NEW_MAPPINGS = constructor("ModuleMappings", ArrayList.class, ArrayList.class);
+    static final MethodHandle NEW_NAME_INDEX = constructor("ModuleNameIndex", type("ModuleMappings"));
+    static final MethodHandle RESOLVE = method("ModuleNameIndex", "resolve", String.class);
+
+    private Subjects()
+    {
+    }
+
+    static Class<?> type(String name)
+    {
+        try
+        {
+            return Class.forName(name);
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new IllegalStateException("Calculator class " + name + " is missing from the benchmark build.", e);
+        }
+    }
+
+    private static MethodHandle method(String owner, String name, Class<?>... parameters)
+    {
+        try
+        {
+            Method method = type(owner).getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        }
+        catch(ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Unable to find " + owner + "." + name + ".", e);
+        }
+    }
+
+    private static MethodHandle constructor(String owner, Class<?>... parameters)
+    {
+        try
+        {
+            Constructor<?> constructor = type(owner).getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        }
+        catch(ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Unable to find a matching constructor of " + owner + ".", e);
+        }
+    }
+}
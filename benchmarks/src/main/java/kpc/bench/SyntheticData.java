@@ -0,0 +1,178 @@
+package kpc.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates synthetic profiles, module lists and module mappings shaped like real ones.
+ *
+ * Module codes are drawn from a fixed universe with a repeatable random seed, so every run of a benchmark sees the
+ * same data. Profiles enable a configurable fraction of the universe, which gives realistic overlap between
+ * operands (team members tend to know most of the same popular modules).
+ *
+ * @author Daniel Burton
+ */
+final class SyntheticData
+{
+    private static final long SEED = 0x4b54414e45L;
+
+    private SyntheticData()
+    {
+    }
+
+    /**
+     * Creates the module code for a position in the synthetic universe.
+     * @param index - position of the module.
+     * @return a module code resembling a real one.
+     */
+    static String code(int index)
+    {
+        return "SyntheticModule" + index;
+    }
+
+    /**
+     * Creates the module name for a position in the synthetic universe.
+     * @param index - position of the module.
+     * @return a module name resembling a real one.
+     */
+    static String name(int index)
+    {
+        return (index % 7 == 0 ? "The " : "") + "Synthetic Puzzle No. " + index;
+    }
+
+    /**
+     * Chooses a random selection of modules from the universe.
+     * @param random - source of randomness.
+     * @param universe - number of modules in the universe.
+     * @param count - number of modules to choose.
+     * @return a List of distinct module codes.
+     */
+    static List<String> chooseCodes(Random random, int universe, int count)
+    {
+        ArrayList<String> codes = new ArrayList<String>(count);
+        int remaining = count;
+        for(int i = 0; i < universe && remaining > 0; i++)
+        {//Selection sampling keeps the codes distinct and in universe order.
+            if(random.nextInt(universe - i) < remaining)
+            {
+                codes.add(code(i));
+                remaining--;
+            }
+        }
+
+        return codes;
+    }
+
+    /**
+     * Creates a new random source with the fixed seed, offset so that different operands differ.
+     * @param offset - value distinguishing this source from others.
+     * @return a seeded Random.
+     */
+    static Random random(int offset)
+    {
+        return new Random(SEED + offset);
+    }
+
+    /**
+     * Writes a profile JSON in the same layout as the mod selector.
+     * @param target - file to write.
+     * @param enabled - module codes for the Enabled list.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    static void writeProfile(File target, List<String> enabled) throws IOException
+    {
+        try(Writer out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8))
+        {
+            out.write("{\"DisabledList\":[],\"EnabledList\":[");
+            for(int i = 0; i < enabled.size(); i++)
+            {
+                if(i > 0)
+                    out.write(',');
+                out.write('"');
+                out.write(enabled.get(i));
+                out.write('"');
+            }
+            out.write("],\"Operation\":0}");
+        }
+    }
+
+    /**
+     * Writes a directory of profiles, each enabling the given number of modules from the universe.
+     * @param directory - directory to fill, which is created if necessary.
+     * @param operands - number of profiles to write.
+     * @param universe - number of modules in the universe.
+     * @param modulesPerProfile - number of modules each profile enables.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    static void writeProfileDirectory(File directory, int operands, int universe, int modulesPerProfile) throws IOException
+    {
+        Files.createDirectories(directory.toPath());
+        for(int i = 0; i < operands; i++)
+            writeProfile(new File(directory, "member" + i + ".json"), chooseCodes(random(i), universe, modulesPerProfile));
+    }
+
+    /**
+     * Writes a module list in either the plain format (one code per line) or the spreadsheet format.
+     * @param target - file to write.
+     * @param codes - module codes to list.
+     * @param spreadsheet - true to group codes in the Challenge Bomb spreadsheet's [A, B] Count: N format.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    static void writeModuleList(File target, List<String> codes, boolean spreadsheet) throws IOException
+    {
+        try(Writer out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8))
+        {
+            if(!spreadsheet)
+            {
+                for(String code : codes)
+                {
+                    out.write(code);
+                    out.write('\n');
+                }
+                return;
+            }
+
+            for(int i = 0; i < codes.size(); i += 4)
+            {//Pools of up to four modules per line, as found in real missions.
+                List<String> pool = codes.subList(i, Math.min(i + 4, codes.size()));
+                out.write("[" + String.join(", ", pool) + "] Count: 1\n");
+            }
+        }
+    }
+
+    /**
+     * Creates a temporary directory for a benchmark's files.
+     * @param prefix - prefix of the directory's name.
+     * @return the new directory.
+     * @throws IOException - in the event that the directory cannot be created.
+     */
+    static File temporaryDirectory(String prefix) throws IOException
+    {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * Deletes a directory created for a benchmark, along with everything inside it.
+     * @param directory - directory to delete.
+     * @throws IOException - in the event that a file cannot be deleted.
+     */
+    static void delete(File directory) throws IOException
+    {
+        if(directory == null || !directory.exists())
+            return;
+
+        try(Stream<java.nio.file.Path> paths = Files.walk(directory.toPath()))
+        {
+            for(Object path : paths.sorted(Comparator.reverseOrder()).toArray())
+                Files.delete((java.nio.file.Path) path);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Runs a script of calculator commands in one go, passing results between commands in memory.
+ *
+ * Each line of a script is one of the following (blank lines and lines starting with # are ignored):
+ * - $name = !command [flags] operands : runs a !c, !n, !u, !i, !d, !e, !k or !a command and keeps its result in memory
+ *   under the given name, without writing it anywhere.
+ * - !command [flags] operands [destination.json] : runs a command exactly as it would be run at the prompt,
+ *   writing its result to the destination (or calculated.json).
+ * - export $name destination.json : writes a named result to a profile.
+ * Any operand may be the name of an earlier result, such as $practice, in place of a profile.
+ *
+ * @author Daniel Burton
+ */
+public class BatchScript implements ProfileSource
+{
+    private final File script;
+    private final boolean verboseOutput;
+    private final ProfileSource fileSource;
+    private final HashMap<String, Profile> results = new HashMap<String, Profile>();
+    private int lineNumber = 0;
+
+    /**
+     * Creates a batch run of a script file.
+     * @param script - text file containing one command per line.
+     * @param verboseOutput - more process details are shown to the user if true.
+     * @param fileSource - source used for operands which are profiles on disk rather than named results.
+     */
+    public BatchScript(File script, boolean verboseOutput, ProfileSource fileSource)
+    {
+        this.script = script;
+        this.verboseOutput = verboseOutput;
+        this.fileSource = fileSource;
+    }
+
+    /**
+     * Creates a batch run with no script file, whose commands are given one at a time to runCommandLine.
+     * @param verboseOutput - more process details are shown to the user if true.
+     * @param fileSource - source used for operands which are profiles on disk rather than named results.
+     */
+    public BatchScript(boolean verboseOutput, ProfileSource fileSource)
+    {
+        this(null, verboseOutput, fileSource);
+    }
+
+    /**
+     * Runs every line of the script in order, stopping at the first line which fails.
+     * @return the number of profiles written.
+     * @throws ArgumentException - in the event that a line is badly formed, with the line number in its message.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
+     * @throws ListFormatException - in the event that a module list is badly formatted.
+     */
+    public int run() throws ArgumentException, IOException, ParseException, ListFormatException
+    {
+        int written = 0;
+
+        try(BufferedReader in = Files.newBufferedReader(script.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                lineNumber++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                if(verboseOutput)
+                    System.out.println("Line " + lineNumber + ": " + line);
+
+                try
+                {
+                    if(runLine(line))
+                        written++;
+                }
+                catch(ArgumentException e)
+                {
+                    throw new ArgumentException("Line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Runs a single command as if it were the next line of a script, so it may use the results of earlier commands.
+     * @param line - the command, in any form a script line may take.
+     * @return true if the command wrote a profile.
+     * @throws ArgumentException - in the event that the command is badly formed.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
+     * @throws ListFormatException - in the event that a module list is badly formatted.
+     */
+    public boolean runCommandLine(String line) throws ArgumentException, IOException, ParseException, ListFormatException
+    {
+        lineNumber++;
+        line = line.trim();
+        if(line.isEmpty() || line.startsWith("#"))
+            return false;
+
+        return runLine(line);
+    }
+
+    /**
+     * Obtains a named result kept by an earlier line, or otherwise obtains the profile from the file source.
+     * @param profile - the operand as given in the script.
+     * @return a Profile containing the operand's enabled modules.
+     * @throws IOException - in the event of a standard I/O error, or if the operand names an unknown result.
+     * @throws ParseException - in the event that a profile JSON cannot be parsed.
+     */
+    @Override
+    public Profile read(File profile) throws IOException, ParseException
+    {
+        String name = profile.getPath();
+        if(!name.startsWith("$"))
+            return fileSource.read(profile);
+
+        Profile result = results.get(name);
+        if(result == null)
+            throw new IOException("Line " + lineNumber + ": no result named " + name + " has been calculated yet.");
+
+        return result;
+    }
+
+    /**
+     * Passes profiles written by the script on to the file source.
+     * @param profile - location the profile was written to.
+     * @param contents - the enabled modules which were written.
+     * @throws IOException - in the event of a standard I/O error.
+     */
+    @Override
+    public void stored(File profile, Profile contents) throws IOException
+    {
+        fileSource.stored(profile, contents);
+    }
+
+    /**
+     * Runs a single line of the script.
+     * @param line - the line, without surrounding whitespace.
+     * @return true if the line wrote a profile.
+     */
+    private boolean runLine(String line) throws ArgumentException, IOException, ParseException, ListFormatException
+    {
+        ArrayList<String> tokens = tokenise(line);
+
+        if(tokens.get(0).equals("export"))
+        {
+            if(tokens.size() != 3 || !tokens.get(1).startsWith("$"))
+                throw new ArgumentException("Export must be written as: export $name destination.json");
+
+            File destination = new File(tokens.get(2));
+            Profile result = read(new File(tokens.get(1)));
+            ProfileCalculations.writeProfile(result, destination, false);
+            stored(destination, result);
+            System.out.println("Exported " + tokens.get(1) + " to " + destination.getAbsolutePath());
+            return true;
+        }
+
+        String resultName = null;
+        if(tokens.size() > 2 && tokens.get(1).equals("="))
+        {
+            resultName = tokens.get(0);
+            if(!resultName.startsWith("$") || resultName.length() < 2)
+                throw new ArgumentException("Result names must start with $.");
+            tokens = new ArrayList<String>(tokens.subList(2, tokens.size()));
+        }
+
+        String command = tokens.get(0);
+        if(!command.startsWith("!") || command.length() != 2)
+            throw new ArgumentException("Unrecognised command " + command + ".");
+
+        boolean verbose = verboseOutput;
+        boolean parallel = false;
+        boolean sorted = false;
+        boolean streaming = false;
+        boolean normalise = false;
+        ArrayList<String> operands = new ArrayList<String>();
+        for(String token : tokens.subList(1, tokens.size()))
+        {
+            if(token.equals("-verbose"))
+                verbose = true;
+            else if(token.equals("-parallel"))
+                parallel = true;
+            else if(token.equals("-sorted"))
+                sorted = true;
+            else if(token.equals("-streaming"))
+                streaming = true;
+            else if(token.equals("-normalise"))
+                normalise = true;
+            else if(token.equals("-stats") || token.equals("-stats-json"))
+                throw new ArgumentException("Statistics cover a whole script, so " + token + " must be given with !b or -batch rather than on a single line.");
+            else
+                operands.add(token);
+        }
+
+        Profile result = runCommand(command.charAt(1), operands, resultName != null, verbose, parallel, sorted, streaming, normalise);
+
+        if(resultName != null)
+        {
+            results.put(resultName, result);
+            if(verboseOutput)
+                System.out.println("Stored " + result.size() + " modules as " + resultName);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs a single command, either keeping its result in memory or writing it to its destination.
+     * @param operation - letter of the command, such as 'u'.
+     * @param operands - everything after the command and its flags.
+     * @param inMemory - true if the result is being assigned to a name rather than written.
+     * @param verbose - more process details are shown to the user if true.
+     * @param parallel - true if directory operands should be processed in parallel.
+     * @param sorted - true if a written profile should list its modules in sorted order.
+     * @param streaming - true if a union or intersection should be merged as sorted streams.
+     * @param normalise - true if a written profile should take whichever of its enabled or disabled forms is smaller.
+     * @return a Profile containing the command's result, or null if it was streamed straight to its destination.
+     */
+    private Profile runCommand(char operation, ArrayList<String> operands, boolean inMemory, boolean verbose, boolean parallel, boolean sorted, boolean streaming, boolean normalise)
+            throws ArgumentException, IOException, ParseException, ListFormatException
+    {
+        int inputCount = operation == 'u' || operation == 'i' || operation == 'd' || operation == 'k' ? 2 : 1;
+        if(!operands.isEmpty() && (operation == 'u' || operation == 'i') && new File(operands.get(0)).isDirectory())
+            inputCount = 1; //A directory stands for all of the profiles inside it.
+
+        if(operands.size() < inputCount || operands.size() > inputCount + 1)
+            throw new ArgumentException("Invalid number of files provided.");
+        if(operands.size() > inputCount && inMemory)
+            throw new ArgumentException("Results kept under a name are not written to a file, use export to write them.");
+
+        File target = null;
+        if(!inMemory)
+            target = operands.size() > inputCount ? new File(operands.get(inputCount)) : new File("calculated.json");
+
+        if(operation == 'a' && !operands.get(0).startsWith("$") && !new File(operands.get(0)).exists())
+            throw new ArgumentException("Complement must have an existing profile or directory, or a named result, as its operand.");
+
+        Profile result;
+        if(operation == 'c' || operation == 'n')
+        {
+            ProfileCreator creator = new ProfileCreator(new File(operands.get(0)), verbose, operation == 'n');
+            result = creator.buildProfile();
+            if(target != null)
+            {
+                ProfileCalculations.writeProfile(result, target, sorted);
+                stored(target, result);
+            }
+        }
+        else
+        {
+            ProfileCalculations calculation;
+            if(operation == 'e')
+                calculation = new ProfileCalculations(operands.get(0), verbose, target);
+            else if(operation == 'k')
+                calculation = new ProfileCalculations(new File(operands.get(1)), verbose, target);
+            else if(inputCount == 1)
+                calculation = new ProfileCalculations(new File(operands.get(0)), verbose, target);
+            else
+                calculation = new ProfileCalculations(new File(operands.get(0)), new File(operands.get(1)), verbose, target);
+
+            calculation.setProfileSource(this);
+            calculation.setUseDirectoryView(DirectoryView.isEnabled());
+            calculation.setResultCache(ResultCache.getShared());
+            calculation.setParallel(parallel);
+            calculation.setStreaming(streaming);
+            calculation.setNormalise(normalise);
+            calculation.setSortedOutput(sorted);
+
+            switch(operation)
+            {
+                case 'u' : result = calculation.computeUnion();break;
+                case 'i' : result = calculation.computeIntersection();break;
+                case 'd' : result = calculation.computeDifference();break;
+                case 'e' : result = calculation.computeExpression();break;
+                case 'k' : result = calculation.computeAtLeast(parseCount(operands.get(0)));break;
+                case 'a' : result = calculation.computeComplement();break;
+                default : throw new ArgumentException("Batch scripts may only contain !c, !n, !u, !i, !d, !e, !k and !a commands.");
+            }
+        }
+
+        if(target != null)
+            System.out.println("Created profile located at " + target.getAbsolutePath());
+
+        return result;
+    }
+
+    /**
+     * Reads the count given to a !k command.
+     * @param count - the operand as given in the script.
+     * @return the count as a number.
+     * @throws ArgumentException - in the event that the operand is not a whole number.
+     */
+    private static int parseCount(String count) throws ArgumentException
+    {
+        try
+        {
+            return Integer.parseInt(count);
+        }
+        catch(NumberFormatException e)
+        {
+            throw new ArgumentException("Unable to read the number " + count + ".");
+        }
+    }
+
+    /**
+     * Splits a line into whitespace-separated tokens, keeping anything within double quotes as a single token.
+     * @param line - the line to split.
+     * @return an ArrayList of tokens, with the quotes removed.
+     */
+    private static ArrayList<String> tokenise(String line) throws ArgumentException
+    {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int position = 0;
+
+        while(position < line.length())
+        {
+            if(Character.isWhitespace(line.charAt(position)))
+            {
+                position++;
+            }
+            else if(line.charAt(position) == '"')
+            {
+                int end = line.indexOf('"', position + 1);
+                if(end < 0)
+                    throw new ArgumentException("Missing closing quote.");
+                tokens.add(line.substring(position + 1, end));
+                position = end + 1;
+            }
+            else
+            {
+                int start = position;
+                while(position < line.length() && !Character.isWhitespace(line.charAt(position)))
+                    position++;
+                tokens.add(line.substring(start, position));
+            }
+        }
+
+        return tokens;
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The dictionary shared by every binary profile in a directory, stored alongside them in a file called modules.kpcd.
+ * Binary profiles store indices into this file rather than module codes, so each code is only stored (and only
+ * decoded into a String) once however many profiles contain it.
+ *
+ * The file holds a header (KPCD, a format version and a random identity) followed by each module code in the order
+ * it was added, as a varint length and its UTF-8 bytes. Codes are only ever appended, so an index never changes
+ * meaning. Each binary profile records the identity of the dictionary it was written against and how many codes
+ * it needed, which together act as the dictionary version the profile requires.
+ *
+ * @author Daniel Burton
+ */
+public class BinaryDictionary
+{
+    static final String FILE_NAME = "modules.kpcd";
+    private static final byte[] MAGIC = {'K', 'P', 'C', 'D'};
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 1 + 8;
+    private static final ConcurrentHashMap<String, BinaryDictionary> LOADED = new ConcurrentHashMap<String, BinaryDictionary>();
+
+    private final File file;
+    private final ModuleDictionary session;
+    private final ArrayList<String> codes = new ArrayList<String>();
+    private final HashMap<String, Integer> fileIds = new HashMap<String, Integer>();
+    private int[] sessionIds = new int[64];
+    private long identity = 0;
+    private long loadedLength = 0;
+
+    /**
+     * Creates a dictionary backed by the given file, which is not read until it is first needed.
+     * @param file - the dictionary file, which need not exist yet.
+     * @param session - dictionary whose identifiers the file's indices are translated to.
+     */
+    private BinaryDictionary(File file, ModuleDictionary session)
+    {
+        this.file = file;
+        this.session = session;
+    }
+
+    /**
+     * Obtains the dictionary used by binary profiles in a directory, which is kept in memory for the rest of the
+     * session once it has been read.
+     * @param directory - directory containing binary profiles.
+     * @return the BinaryDictionary for that directory.
+     * @throws IOException - in the event that the directory's location cannot be established.
+     */
+    public static BinaryDictionary forDirectory(File directory) throws IOException
+    {
+        File dictionaryFile = new File(directory.getCanonicalFile(), FILE_NAME);
+        return LOADED.computeIfAbsent(dictionaryFile.getPath(), path -> new BinaryDictionary(dictionaryFile, ModuleDictionary.getShared()));
+    }
+
+    /**
+     * Obtains the dictionary used by a binary profile, which lives in the same directory as the profile.
+     * @param profile - a binary profile, which need not exist yet.
+     * @return the BinaryDictionary for the profile's directory.
+     * @throws IOException - in the event that the profile's location cannot be established.
+     */
+    public static BinaryDictionary forProfile(File profile) throws IOException
+    {
+        return forDirectory(profile.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Obtains the session's dictionary, whose identifiers the file's indices are translated to.
+     * @return the session's ModuleDictionary.
+     */
+    public ModuleDictionary getSessionDictionary()
+    {
+        return session;
+    }
+
+    /**
+     * Obtains the translation from this file's indices to the session's module identifiers, making sure it covers
+     * every index a profile needs. Entries of the returned array never change, so it may be used without locking.
+     * @param requiredIdentity - identity of the dictionary the profile was written against.
+     * @param requiredSize - number of codes the profile needs the dictionary to hold.
+     * @return an array whose first requiredSize entries are session identifiers.
+     * @throws IOException - if the dictionary cannot be read, or does not match the profile.
+     */
+    public synchronized int[] sessionIds(long requiredIdentity, int requiredSize) throws IOException
+    {
+        if(identity != requiredIdentity || codes.size() < requiredSize)
+        {//The file may have been extended, or replaced, since it was last read.
+            try(FileChannel channel = openForReading())
+            {
+                load(channel);
+            }
+        }
+
+        if(identity != requiredIdentity || codes.size() < requiredSize)
+            throw new IOException("The binary profile does not match " + file.getPath() + ", it must be kept with the dictionary it was written with.");
+
+        return sessionIds;
+    }
+
+    /**
+     * Obtains this file's index for every module in a profile, appending any codes the file does not yet hold.
+     * @param profile - Profile whose modules are needed.
+     * @return the indices of the profile's modules in ascending order.
+     * @throws IOException - in the event that the dictionary file cannot be read or extended.
+     */
+    public synchronized int[] fileIdsFor(Profile profile) throws IOException
+    {
+        ModuleDictionary dictionary = profile.getDictionary();
+        int[] ids = new int[profile.size()];
+        ArrayList<String> missing = new ArrayList<String>();
+
+        if(file.isFile())
+        {//Indices are only handed out if the file still holds them, in case it has been replaced since it was read.
+            try(FileChannel channel = openForReading())
+            {
+                load(channel);
+            }
+        }
+        else
+            reset(0);
+
+        int count = 0;
+        for(int id = profile.nextModule(0); id >= 0; id = profile.nextModule(id + 1))
+        {
+            String code = dictionary.codeOf(id);
+            Integer fileId = fileIds.get(code);
+            if(fileId == null)
+                missing.add(code);
+            else
+                ids[count++] = fileId;
+        }
+
+        if(!missing.isEmpty())
+        {
+            append(missing);
+            for(String code : missing)
+                ids[count++] = fileIds.get(code);
+        }
+
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Obtains the identity written in the dictionary's header.
+     * @return the identity, or 0 if the dictionary file has not been created.
+     */
+    public synchronized long getIdentity()
+    {
+        return identity;
+    }
+
+    /**
+     * Obtains the number of codes in the dictionary as it was last read or written.
+     * @return the number of codes held.
+     */
+    public synchronized int size()
+    {
+        return codes.size();
+    }
+
+    /**
+     * Adds codes to the end of the dictionary file, creating it if necessary. The file is locked while it is
+     * extended, so that several copies of the calculator sharing a directory never assign the same index twice.
+     * @param missing - codes which were not in the dictionary when it was last read.
+     */
+    private void append(ArrayList<String> missing) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            channel.lock(); //Released when the channel is closed.
+            load(channel);
+
+            ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + 64);
+            if(loadedLength == 0)
+            {//A new dictionary is given a random identity so that profiles cannot be read against the wrong one.
+                identity = ThreadLocalRandom.current().nextLong() | 1;
+                out.put(MAGIC).put((byte) FORMAT_VERSION).putLong(identity);
+            }
+
+            for(String code : missing)
+            {
+                if(fileIds.containsKey(code))
+                    continue; //Another copy of the calculator added this code in the meantime.
+
+                byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+                if(out.remaining() < bytes.length + 5)
+                    out = grow(out, bytes.length + 5);
+                BinaryProfile.putVarint(out, bytes.length);
+                out.put(bytes);
+                addCode(code);
+            }
+            out.flip();
+
+            channel.truncate(loadedLength); //Drops anything left by an append which did not finish.
+            long position = loadedLength;
+            while(out.hasRemaining())
+                position += channel.write(out, position);
+            channel.force(true);
+            loadedLength = position;
+        }
+        catch(IOException e)
+        {//Codes added in memory may not have reached the file, so everything is read again next time.
+            reset(0);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads any part of the dictionary file which has not been read yet. If the file no longer starts with the
+     * header that was read before, it has been replaced and is read again from the beginning.
+     * @param channel - open channel to the dictionary file.
+     */
+    private void load(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        if(size < HEADER_SIZE)
+        {
+            if(size > 0)
+                throw new IOException(file.getPath() + " is not a module dictionary.");
+            reset(0);
+            return;
+        }
+
+        ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+        for(byte b : MAGIC)
+        {
+            if(header.get() != b)
+                throw new IOException(file.getPath() + " is not a module dictionary.");
+        }
+        if(header.get() != FORMAT_VERSION)
+            throw new IOException(file.getPath() + " was written by a newer version of the calculator.");
+
+        long fileIdentity = header.getLong();
+        if(fileIdentity != identity || size < loadedLength)
+        {
+            reset(fileIdentity);
+            loadedLength = HEADER_SIZE;
+        }
+        if(size == loadedLength)
+            return;
+
+        ByteBuffer entries = readFully(channel, loadedLength, (int) (size - loadedLength));
+        while(entries.hasRemaining())
+        {
+            int start = entries.position();
+            int length = BinaryProfile.getVarint(entries);
+            if(length < 0 || entries.remaining() < length)
+            {//An entry cut short by an append which did not finish is ignored, and overwritten by the next append.
+                entries.position(start);
+                break;
+            }
+
+            addCode(new String(entries.array(), entries.position(), length, StandardCharsets.UTF_8));
+            entries.position(entries.position() + length);
+        }
+        loadedLength += entries.position();
+    }
+
+    /**
+     * Records a code as having the next index in the dictionary.
+     * @param code - module code to add.
+     */
+    private void addCode(String code)
+    {
+        int index = codes.size();
+        if(index == sessionIds.length)
+            sessionIds = Arrays.copyOf(sessionIds, index * 2);
+
+        codes.add(code);
+        fileIds.put(code, index);
+        sessionIds[index] = session.intern(code);
+    }
+
+    /**
+     * Forgets everything read from the file so far.
+     * @param newIdentity - identity of the file which will be read next.
+     */
+    private void reset(long newIdentity)
+    {
+        codes.clear();
+        fileIds.clear();
+        sessionIds = new int[64]; //Arrays handed out earlier keep their contents.
+        identity = newIdentity;
+        loadedLength = 0;
+    }
+
+    private FileChannel openForReading() throws IOException
+    {
+        if(!file.isFile())
+            throw new IOException("Unable to find the module dictionary " + file.getPath() + " for a binary profile.");
+
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Module dictionary ended unexpectedly.");
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed)
+    {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
@@ -0,0 +1,354 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes profiles in the calculator's compact binary format, which uses the .kpcp extension.
+ *
+ * A binary profile holds its modules as sorted indices into the BinaryDictionary stored in the same directory, each
+ * written as the varint-encoded gap from the previous index. Reading one needs no parsing of text and creates no
+ * Strings, as indices are translated straight to the session's module identifiers. A binary profile can be
+ * converted to and from the mod selector's JSON without losing its enabled list, disabled list or operation.
+ *
+ * The file layout is: KPCP, a format version byte, the dictionary's identity (8 bytes), the number of dictionary
+ * codes the profile needs (varint), a byte of flags showing which lists are present, each present list as a varint
+ * count followed by its gaps, and finally the operation as a type byte followed by its text where it has any.
+ *
+ * @author Daniel Burton
+ */
+public class BinaryProfile
+{
+    static final String EXTENSION = "kpcp";
+    private static final byte[] MAGIC = {'K', 'P', 'C', 'P'};
+    private static final int FORMAT_VERSION = 1;
+    private static final int HAS_ENABLED = 1;
+    private static final int HAS_DISABLED = 2;
+    private static final int OPERATION_ABSENT = 0;
+    private static final int OPERATION_NUMBER = 1;
+    private static final int OPERATION_STRING = 2;
+    private static final int OPERATION_TRUE = 3;
+    private static final int OPERATION_FALSE = 4;
+
+    private BinaryProfile()
+    {
+    }
+
+    /**
+     * Establishes whether a file is, or should be written as, a binary profile.
+     * @param profile - file to check.
+     * @return true if the file has the binary profile extension.
+     */
+    public static boolean isBinary(File profile)
+    {
+        return profile.getName().endsWith("." + EXTENSION);
+    }
+
+    /**
+     * Reads the modules a binary profile enables, taking its disabled list into account as described in
+     * ProfileDocument.
+     * @param profile - binary profile to read.
+     * @return a Profile containing every module the profile enables.
+     * @throws IOException - in the event of a standard file-reading error, or if the file is not a binary profile.
+     * @throws ParseException - in the event that the repository's modules are needed but cannot be parsed.
+     */
+    public static Profile readModules(File profile) throws IOException, ParseException
+    {
+        return read(profile).getModules();
+    }
+
+    /**
+     * Reads every part of a binary profile, such as when converting it to JSON.
+     * @param profile - binary profile to read.
+     * @return a ProfileDocument holding every part of the profile which was present.
+     * @throws IOException - in the event of a standard file-reading error, or if the file is not a binary profile.
+     */
+    public static ProfileDocument readDocument(File profile) throws IOException
+    {
+        return read(profile);
+    }
+
+    /**
+     * Writes a binary profile, adding any modules its directory's dictionary does not yet hold. As with JSON
+     * profiles, the file only replaces the target once it is complete.
+     * @param targetFile - file location to store the profile.
+     * @param document - the parts of the profile to write.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    public static void write(File targetFile, ProfileDocument document) throws IOException
+    {
+        long started = Statistics.start();
+        BinaryDictionary dictionary = BinaryDictionary.forProfile(targetFile);
+        int[] enabled = null;
+        int[] disabled = null;
+        long identity;
+        int required;
+
+        synchronized(dictionary)
+        {//The identity and size must be those the indices were handed out against.
+            if(document.getEnabled() != null)
+                enabled = dictionary.fileIdsFor(document.getEnabled());
+            if(document.getDisabled() != null)
+                disabled = dictionary.fileIdsFor(document.getDisabled());
+            identity = dictionary.getIdentity();
+            required = dictionary.size();
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(32 + 5 * ((enabled == null ? 0 : enabled.length) + (disabled == null ? 0 : disabled.length)));
+        out.put(MAGIC).put((byte) FORMAT_VERSION).putLong(identity);
+        putVarint(out, required);
+        out.put((byte) ((enabled != null ? HAS_ENABLED : 0) | (disabled != null ? HAS_DISABLED : 0)));
+        if(enabled != null)
+            putIds(out, enabled);
+        if(disabled != null)
+            putIds(out, disabled);
+        out = putOperation(out, document.getOperation());
+        out.flip();
+        Statistics.end(Statistics.Phase.SERIALISE, started);
+        Statistics.countWritten((enabled == null ? 0 : enabled.length) + (disabled == null ? 0 : disabled.length));
+
+        writeAtomically(targetFile, out);
+    }
+
+    /**
+     * Reads a binary profile.
+     * @param profile - binary profile to read.
+     * @return a ProfileDocument holding every part of the profile which was present.
+     */
+    private static ProfileDocument read(File profile) throws IOException
+    {
+        long started = Statistics.start();
+        byte[] bytes = Files.readAllBytes(profile.toPath());
+        Statistics.end(Statistics.Phase.READ, started, bytes.length);
+
+        started = Statistics.start();
+        ProfileDocument document = decode(profile, ByteBuffer.wrap(bytes));
+        Statistics.end(Statistics.Phase.PARSE, started);
+        if(document.getEnabled() != null)
+            Statistics.countRead(document.getEnabled());
+
+        return document;
+    }
+
+    /**
+     * Decodes the contents of a binary profile.
+     * @param profile - the binary profile the contents were read from.
+     * @param in - the profile's contents.
+     * @return a ProfileDocument holding every part of the profile which was present.
+     */
+    private static ProfileDocument decode(File profile, ByteBuffer in) throws IOException
+    {
+        try
+        {
+            for(byte b : MAGIC)
+            {
+                if(in.get() != b)
+                    throw new IOException(profile.getPath() + " is not a binary profile.");
+            }
+            if(in.get() != FORMAT_VERSION)
+                throw new IOException(profile.getPath() + " was written by a newer version of the calculator.");
+
+            long identity = in.getLong();
+            int required = nextVarint(in);
+            int flags = in.get();
+
+            BinaryDictionary dictionary = BinaryDictionary.forProfile(profile);
+            int[] sessionIds = required == 0 ? new int[0] : dictionary.sessionIds(identity, required);
+            ModuleDictionary session = dictionary.getSessionDictionary();
+
+            Profile enabled = (flags & HAS_ENABLED) != 0 ? getIds(in, sessionIds, required, session) : null;
+            Profile disabled = (flags & HAS_DISABLED) != 0 ? getIds(in, sessionIds, required, session) : null;
+            return new ProfileDocument(enabled, disabled, getOperation(in));
+        }
+        catch(RuntimeException e)
+        {//Covers the file ending early as well as indices out of range.
+            throw new IOException(profile.getPath() + " is not a valid binary profile.", e);
+        }
+    }
+
+    /**
+     * Writes a list of indices as a count followed by the gaps between them.
+     * @param out - buffer to write to, which must have room for five bytes per index.
+     * @param ids - indices in ascending order.
+     */
+    private static void putIds(ByteBuffer out, int[] ids)
+    {
+        putVarint(out, ids.length);
+        int previous = -1;
+        for(int id : ids)
+        {
+            putVarint(out, id - previous - 1);
+            previous = id;
+        }
+    }
+
+    /**
+     * Reads a list of indices straight into a profile of session identifiers.
+     * @param in - buffer positioned at the list's count.
+     * @param sessionIds - translation from dictionary indices to session identifiers.
+     * @param required - number of valid entries in the translation.
+     * @param session - the session's dictionary.
+     * @return a Profile containing the listed modules.
+     */
+    private static Profile getIds(ByteBuffer in, int[] sessionIds, int required, ModuleDictionary session)
+    {
+        Profile profile = new Profile(session);
+        int count = nextVarint(in);
+        int id = -1;
+        for(int i = 0; i < count; i++)
+        {
+            id += nextVarint(in) + 1;
+            if(id >= required)
+                throw new IndexOutOfBoundsException("Module index " + id + " is outside the dictionary.");
+            profile.addId(sessionIds[id]);
+        }
+
+        return profile;
+    }
+
+    /**
+     * Writes the operation as a type byte followed by its text, if it has any.
+     * @param out - buffer to write to.
+     * @param operation - the operation as a Number, String or Boolean, or null if absent.
+     * @return the buffer written to, which is a larger copy if the original did not have room.
+     */
+    private static ByteBuffer putOperation(ByteBuffer out, Object operation)
+    {
+        if(operation == null)
+            return out.put((byte) OPERATION_ABSENT);
+        if(operation instanceof Boolean)
+            return out.put((byte) ((Boolean) operation ? OPERATION_TRUE : OPERATION_FALSE));
+
+        byte[] text = operation.toString().getBytes(StandardCharsets.UTF_8);
+        if(out.remaining() < text.length + 6)
+        {
+            ByteBuffer larger = ByteBuffer.allocate(out.position() + text.length + 6);
+            out.flip();
+            out = larger.put(out);
+        }
+
+        out.put((byte) (operation instanceof Number ? OPERATION_NUMBER : OPERATION_STRING));
+        putVarint(out, text.length);
+        return out.put(text);
+    }
+
+    /**
+     * Reads the operation written by putOperation.
+     * @param in - buffer positioned at the operation's type byte.
+     * @return the operation as a BigDecimal, String or Boolean, or null if absent.
+     */
+    private static Object getOperation(ByteBuffer in)
+    {
+        int type = in.get();
+        switch(type)
+        {
+            case OPERATION_ABSENT : return null;
+            case OPERATION_TRUE : return Boolean.TRUE;
+            case OPERATION_FALSE : return Boolean.FALSE;
+            case OPERATION_NUMBER : case OPERATION_STRING :
+                int length = nextVarint(in);
+                String text = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+                in.position(in.position() + length);
+                return type == OPERATION_NUMBER ? new BigDecimal(text) : text;
+            default : throw new IllegalArgumentException("Unknown operation type " + type + ".");
+        }
+    }
+
+    /**
+     * Writes a non-negative integer in as few bytes as possible, seven bits at a time.
+     * @param out - buffer to write to.
+     * @param value - the value to write.
+     */
+    static void putVarint(ByteBuffer out, int value)
+    {
+        while((value & ~0x7F) != 0)
+        {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads an integer written by putVarint.
+     * @param in - buffer to read from.
+     * @return the value read, or -1 if the buffer ends part of the way through it.
+     */
+    static int getVarint(ByteBuffer in)
+    {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7)
+        {
+            if(!in.hasRemaining())
+                return -1;
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if(b >= 0)
+                return value;
+        }
+
+        throw new IllegalArgumentException("Varint is too long.");
+    }
+
+    /**
+     * Reads an integer written by putVarint from a profile, which must not end part of the way through it.
+     * @param in - buffer to read from.
+     * @return the value read.
+     */
+    private static int nextVarint(ByteBuffer in)
+    {
+        int value = getVarint(in);
+        if(value < 0)
+            throw new BufferUnderflowException();
+
+        return value;
+    }
+
+    /**
+     * Writes a complete file to a temporary location alongside the target and then moves it into place.
+     * @param targetFile - file location to store the bytes.
+     * @param bytes - everything to write.
+     */
+    static void writeAtomically(File targetFile, ByteBuffer bytes) throws IOException
+    {
+        File absolute = targetFile.getAbsoluteFile();
+        Path target = absolute.toPath();
+        Path temporary = ProfileWriter.temporaryFor(target);
+        long started = Statistics.start();
+        long length = bytes.remaining();
+
+        try
+        {
+            try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+            {
+                while(bytes.hasRemaining())
+                    channel.write(bytes);
+                channel.force(true);
+            }
+
+            try
+            {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch(AtomicMoveNotSupportedException e)
+            {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Statistics.end(Statistics.Phase.WRITE, started, length);
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
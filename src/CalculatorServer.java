@@ -0,0 +1,254 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the calculator running in the background, so that other programs can have commands carried out without
+ * starting a new Java process for each one. Profiles read, module codes and module name mappings all stay in memory
+ * between commands, so repeated commands over the same profiles are answered without reading them again.
+ *
+ * The server only accepts connections from the same machine, on the port given by the server.port setting. A client
+ * sends one command per line, written exactly as a line of a batch script (see BatchScript), and after each command
+ * the server sends back every line the command printed, each preceded by ">", followed by a line reading "#ok", or
+ * "#error" and the reason the command failed. Since every printed line is marked, a printed line starting with "#"
+ * cannot be mistaken for the end of the reply. Results kept under a name, such as $practice, last until the client
+ * disconnects. Every connection is served on its own thread, using a virtual thread when the Java version supports
+ * them. Output printed by the threads of any pool a command creates, such as those of -parallel unions and the
+ * difference matrix, also goes to the command's client, since those threads inherit the connection's output.
+ *
+ * @author Daniel Burton
+ */
+public class CalculatorServer
+{
+    static final long DEFAULT_PORT = 7657;
+    static final String OUTPUT = ">";
+    static final String SUCCESS = "#ok";
+    static final String FAILURE = "#error";
+
+    private final int port;
+    private final ProfileSource profileSource;
+    private final boolean verboseOutput;
+
+    /**
+     * Creates a server which has not yet started listening.
+     * @param port - port to listen on.
+     * @param profileSource - source used to read profiles, shared between every connection.
+     * @param verboseOutput - more process details are shown to clients if true.
+     */
+    public CalculatorServer(int port, ProfileSource profileSource, boolean verboseOutput)
+    {
+        this.port = port;
+        this.profileSource = profileSource;
+        this.verboseOutput = verboseOutput;
+    }
+
+    /**
+     * Obtains the port given by the server.port setting.
+     * @return the port the server listens on and clients connect to.
+     */
+    public static int getConfiguredPort()
+    {
+        return (int) Settings.getLong("server.port", DEFAULT_PORT);
+    }
+
+    /**
+     * Listens for connections until the program is stopped. Module name mappings are loaded before the first
+     * connection is accepted, so that the first command using them does not have to wait.
+     * @throws IOException - in the event that the port cannot be listened on.
+     */
+    public void run() throws IOException
+    {
+        try
+        {
+            ModuleMappings.obtain(verboseOutput).getNameIndex();
+        }
+        catch(IOException | ParseException e)
+        {//Only commands using module names need the mappings, so the server can run without them.
+            System.out.println("Unable to load module mappings (" + e.getMessage() + "), they will be loaded when first needed.");
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new ConnectionOutput(console), true)); //Each command's output goes to its own client.
+
+        ExecutorService executor = newExecutor();
+        try(ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress()))
+        {
+            console.println("Server listening on " + server.getInetAddress().getHostAddress() + ":" + port);
+            while(true)
+            {
+                Socket connection = server.accept();
+                executor.execute(() -> serve(connection));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Sends commands to a running server, printing each command's output as it would have been printed locally. A
+     * command is only read once the reply to the one before it has been printed, so commands typed at a terminal are
+     * answered as they are entered.
+     * @param port - port the server is listening on.
+     * @param commands - source of the commands to send, one per line.
+     * @return true if every command succeeded.
+     * @throws IOException - in the event that the server cannot be reached or the commands cannot be read.
+     */
+    public static boolean send(int port, BufferedReader commands) throws IOException
+    {
+        try(Socket connection = new Socket(InetAddress.getLoopbackAddress(), port))
+        {
+            connection.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8);
+
+            String command;
+            while((command = commands.readLine()) != null)
+            {
+                out.write(command + "\n");
+                out.flush();
+
+                String line;
+                while((line = in.readLine()) != null && line.startsWith(OUTPUT))
+                    System.out.println(line.substring(OUTPUT.length()));
+
+                if(line == null)
+                    throw new IOException("The server closed the connection.");
+                if(!line.startsWith(SUCCESS) && !line.startsWith(FAILURE))
+                    throw new IOException("Unexpected reply from the server: " + line);
+                if(line.startsWith(FAILURE))
+                {
+                    System.err.println("Unable to complete operation due to following reason:");
+                    System.err.println(line.substring(FAILURE.length()).trim());
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Carries out every command sent over a connection until the client disconnects.
+     * @param connection - the client's connection.
+     */
+    private void serve(Socket connection)
+    {
+        BatchScript session = new BatchScript(verboseOutput, profileSource);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ConnectionOutput.TARGET.set(output);
+
+        try(Socket client = connection)
+        {
+            client.setTcpNoDelay(true); //Responses are small, so they should not wait to be combined with others.
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = client.getOutputStream();
+
+            String command;
+            while((command = in.readLine()) != null)
+            {
+                String status = SUCCESS;
+                try
+                {
+                    session.runCommandLine(command);
+                }
+                catch(ArgumentException | ListFormatException | IOException | ParseException | RuntimeException e)
+                {
+                    status = FAILURE + " " + String.valueOf(e.getMessage()).replace('\n', ' ');
+                }
+
+                System.out.flush();
+                StringBuilder reply = new StringBuilder();
+                BufferedReader printed = new BufferedReader(new StringReader(new String(output.toByteArray(), StandardCharsets.UTF_8)));
+                for(String line = printed.readLine(); line != null; line = printed.readLine())
+                    reply.append(OUTPUT).append(line).append('\n'); //Split as the client will read it, so every line is marked.
+                reply.append(status).append('\n');
+
+                out.write(reply.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                output.reset();
+            }
+        }
+        catch(IOException e)
+        {//The client has gone, so there is nobody left to tell.
+        }
+        finally
+        {
+            ConnectionOutput.TARGET.remove();
+        }
+    }
+
+    /**
+     * Creates the executor connections are served on: one virtual thread per connection if the running Java version
+     * has them, and otherwise a pool of ordinary threads which grows with the number of connections.
+     * @return an ExecutorService for serving connections.
+     */
+    private static ExecutorService newExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(ReflectiveOperationException e)
+        {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Standard output as seen while the server is running: anything printed while serving a connection is collected
+     * for that connection, and anything else goes to the console. The connection's output is inherited by any thread
+     * started while serving it, so the worker threads of pools created by a command print to the same client.
+     */
+    private static final class ConnectionOutput extends OutputStream
+    {
+        private static final ThreadLocal<OutputStream> TARGET = new InheritableThreadLocal<OutputStream>();
+
+        private final OutputStream console;
+
+        private ConnectionOutput(OutputStream console)
+        {
+            this.console = console;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            target().flush();
+        }
+
+        private OutputStream target()
+        {
+            OutputStream target = TARGET.get();
+            return target == null ? console : target;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Compares every member of a team with every other member in a single pass, in place of a difference for every
+ * ordered pair of members.
+ *
+ * Each member's profile is read once. The difference of every ordered pair is then calculated, giving the modules
+ * one member can do which another cannot, along with each member's unique modules (those nobody else in the team can
+ * do). Members are read, and their rows of differences calculated and written, on every available core. The number
+ * of modules in each difference is reported as a matrix, and the differences themselves may be written as profiles.
+ *
+ * @author Daniel Burton
+ */
+public class DifferenceMatrix
+{
+    private final File teamDirectory;
+    private final File targetDirectory;
+    private final boolean verboseOutput;
+    private ProfileSource profileSource = null;
+    private boolean sortedOutput = false;
+
+    /**
+     * Creates a comparison of every pair of members of a team.
+     * @param teamDirectory - directory containing one profile per team member.
+     * @param targetDirectory - directory to write every difference and each member's unique modules to as profiles,
+     *                        or null to only report their sizes.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    public DifferenceMatrix(File teamDirectory, File targetDirectory, boolean verboseOutput)
+    {
+        this.teamDirectory = teamDirectory;
+        this.targetDirectory = targetDirectory;
+        this.verboseOutput = verboseOutput;
+    }
+
+    /**
+     * Sets where member profiles are read from, such as a cache of profiles read earlier in the session.
+     * @param profileSource - source of profiles, or null to read them from disk.
+     */
+    public void setProfileSource(ProfileSource profileSource)
+    {
+        this.profileSource = profileSource;
+    }
+
+    /**
+     * Sets whether written profiles list their modules in sorted order.
+     * @param sortedOutput - true if modules should be listed in sorted order.
+     */
+    public void setSortedOutput(boolean sortedOutput)
+    {
+        this.sortedOutput = sortedOutput;
+    }
+
+    /**
+     * Reads every member profile once and calculates every pairwise difference and each member's unique modules,
+     * printing the size of each as a matrix.
+     * @return the number of differences calculated, not counting unique modules.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a member's profile cannot be parsed.
+     */
+    public int report() throws IOException, ParseException
+    {
+        ArrayList<File> members = ProfileCalculations.listProfiles(teamDirectory);
+        if(members.size() < 2)
+            throw new IOException("A team directory must contain at least two profiles to be compared.");
+        if(targetDirectory != null && !targetDirectory.isDirectory() && !targetDirectory.mkdirs())
+            throw new IOException("Unable to create the directory " + targetDirectory.getPath() + ".");
+
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), members.size()));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        if(verboseOutput)
+            System.out.println("Comparing " + members.size() + " profiles using " + threads + " threads.");
+
+        try
+        {
+            ArrayList<Callable<Profile>> reads = new ArrayList<Callable<Profile>>();
+            for(File member : members)
+                reads.add(() -> profileSource == null ? ProfileCalculations.readProfileFile(member) : profileSource.read(member));
+            List<Profile> profiles = await(pool.invokeAll(reads));
+
+            Profile seen = new Profile(profiles.get(0).getDictionary());
+            Profile shared = new Profile(profiles.get(0).getDictionary());
+            long started = Statistics.start();
+            for(Profile profile : profiles)
+            {//Modules seen in an earlier profile as well as this one are enabled by more than one member.
+                shared.addAll(seen.intersection(profile));
+                seen.addAll(profile);
+            }
+            Statistics.end(Statistics.Phase.OPERATION, started);
+
+            ArrayList<Callable<int[]>> rows = new ArrayList<Callable<int[]>>();
+            for(int i = 0; i < profiles.size(); i++)
+            {
+                final int member = i;
+                rows.add(() -> calculateRow(members, profiles, shared, member));
+            }
+            List<int[]> matrix = await(pool.invokeAll(rows));
+
+            printMatrix(members, matrix);
+            if(targetDirectory != null)
+                writeSummary(members, matrix);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        return members.size() * (members.size() - 1);
+    }
+
+    /**
+     * Calculates, and writes if required, one member's difference from every other member and their unique modules.
+     * @param members - every member's profile file.
+     * @param profiles - every member's enabled modules.
+     * @param shared - modules enabled by more than one member.
+     * @param member - the position of the member whose row is being calculated.
+     * @return the size of the member's difference from each other member, with their number of unique modules in
+     *         place of their difference from themselves.
+     */
+    private int[] calculateRow(List<File> members, List<Profile> profiles, Profile shared, int member) throws IOException
+    {
+        int[] row = new int[profiles.size()];
+        Profile profile = profiles.get(member);
+
+        for(int other = 0; other < profiles.size(); other++)
+        {
+            long started = Statistics.start();
+            Profile difference = profile.difference(other == member ? shared : profiles.get(other));
+            Statistics.end(Statistics.Phase.OPERATION, started);
+            row[other] = difference.size();
+
+            if(targetDirectory != null)
+            {
+                String name = baseName(members.get(member)) + (other == member ? "-unique" : "-minus-" + baseName(members.get(other)));
+                write(difference, new File(targetDirectory, name + ".json"));
+            }
+        }
+
+        return row;
+    }
+
+    /**
+     * Prints the matrix of difference sizes, with a row for each member holding the number of their modules each
+     * other member cannot do, followed by each member's number of unique modules.
+     * @param members - every member's profile file.
+     * @param matrix - the size of every difference, with unique modules on the diagonal.
+     */
+    private void printMatrix(List<File> members, List<int[]> matrix)
+    {
+        int width = 6;
+        for(File member : members)
+            width = Math.max(width, baseName(member).length() + 1);
+
+        StringBuilder header = new StringBuilder(String.format("%-" + width + "s", "minus"));
+        for(File member : members)
+            header.append(String.format("%" + width + "s", baseName(member)));
+        System.out.println(header);
+
+        for(int i = 0; i < members.size(); i++)
+        {
+            StringBuilder line = new StringBuilder(String.format("%-" + width + "s", baseName(members.get(i))));
+            for(int j = 0; j < members.size(); j++)
+                line.append(String.format("%" + width + "s", i == j ? "-" : Integer.toString(matrix.get(i)[j])));
+            System.out.println(line);
+        }
+
+        for(int i = 0; i < members.size(); i++)
+            System.out.println(baseName(members.get(i)) + " is the only member able to do " + matrix.get(i)[i] + " modules.");
+    }
+
+    /**
+     * Writes the matrix of difference sizes to matrix.csv in the target directory, with unique modules on the
+     * diagonal.
+     * @param members - every member's profile file.
+     * @param matrix - the size of every difference, with unique modules on the diagonal.
+     */
+    private void writeSummary(List<File> members, List<int[]> matrix) throws IOException
+    {
+        File summary = new File(targetDirectory, "matrix.csv");
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(summary.toPath(), StandardCharsets.UTF_8)))
+        {
+            out.print("minus");
+            for(File member : members)
+                out.print("," + baseName(member));
+            out.println();
+
+            for(int i = 0; i < members.size(); i++)
+            {
+                out.print(baseName(members.get(i)));
+                for(int count : matrix.get(i))
+                    out.print("," + count);
+                out.println();
+            }
+        }
+
+        if(verboseOutput)
+            System.out.println("Wrote " + summary.getPath());
+    }
+
+    private void write(Profile modules, File target) throws IOException
+    {
+        ProfileCalculations.writeProfile(modules, target, sortedOutput);
+        if(profileSource != null)
+            profileSource.stored(target, modules);
+        if(verboseOutput)
+            System.out.println("Wrote " + target.getPath());
+    }
+
+    /**
+     * Waits for every task to complete, rethrowing the first failure as it would have been thrown sequentially.
+     * @param futures - the tasks' futures.
+     * @return the tasks' results, in order.
+     */
+    private static <T> List<T> await(List<Future<T>> futures) throws IOException, ParseException
+    {
+        ArrayList<T> results = new ArrayList<T>(futures.size());
+        try
+        {
+            for(Future<T> future : futures)
+                results.add(future.get());
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while comparing profiles.", e);
+        }
+        catch(ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException)
+                throw (IOException) cause;
+            if(cause instanceof ParseException)
+                throw (ParseException) cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+
+        return results;
+    }
+
+    private static String baseName(File profile)
+    {
+        String name = profile.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+}
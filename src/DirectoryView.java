@@ -0,0 +1,258 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The union and intersection of a directory of profiles, kept up to date as profiles in the directory are added,
+ * changed or removed rather than calculated again from every profile.
+ *
+ * The view counts, for every module, how many of the directory's profiles enable it. The union is every module with
+ * a count above zero, and the intersection is every module enabled by all of the profiles. Modules are also grouped
+ * by their count, so that the intersection is simply the group whose count equals the number of profiles. When a
+ * profile changes, only the modules it gained or lost have their counts (and groups) updated, so the work done is
+ * proportional to the change in that profile, however many profiles the directory holds.
+ *
+ * Views hold every profile of every directory they have seen for the rest of the session, outside the memory limit
+ * of the ProfileCache, so they are only used when the views.enabled setting is true.
+ *
+ * @author Daniel Burton
+ */
+public class DirectoryView
+{
+    private static final ConcurrentHashMap<String, DirectoryView> OPEN = new ConcurrentHashMap<String, DirectoryView>();
+
+    private final File directory;
+    private final ModuleDictionary dictionary;
+    private final long generation;
+    private final HashMap<String, Member> members = new HashMap<String, Member>();
+    private final ArrayList<Profile> modulesByCount = new ArrayList<Profile>();
+    private final Profile union;
+    private int[] counts = new int[64];
+
+    /**
+     * Creates an empty view of a directory.
+     * @param directory - directory of profiles being viewed.
+     * @param dictionary - dictionary the profiles' modules belong to.
+     * @param generation - generation of the module mappings the profiles are read under.
+     */
+    private DirectoryView(File directory, ModuleDictionary dictionary, long generation)
+    {
+        this.directory = directory;
+        this.dictionary = dictionary;
+        this.generation = generation;
+        this.union = new Profile(dictionary);
+    }
+
+    /**
+     * Establishes whether directory views have been turned on by the views.enabled setting.
+     * @return true if unions and intersections of directories should use their views.
+     */
+    public static boolean isEnabled()
+    {
+        return Settings.getBoolean("views.enabled", false);
+    }
+
+    /**
+     * Establishes whether a view of a directory has already been built during this session, since the repository's
+     * modules last changed.
+     * @param directory - directory of profiles.
+     * @return true if the directory has a current view.
+     * @throws IOException - in the event that the directory's canonical path cannot be obtained.
+     */
+    public static boolean isOpen(File directory) throws IOException
+    {
+        DirectoryView view = OPEN.get(directory.getCanonicalFile().getPath());
+        return view != null && view.generation == ModuleMappings.getGeneration();
+    }
+
+    /**
+     * Obtains the view of a directory, bringing it up to date with the profiles currently in the directory. The view
+     * is kept in memory for the rest of the session, so only profiles which were added or changed since it was last
+     * opened are read. A view built before the repository's modules changed is built again from every profile.
+     * @param directory - directory of profiles.
+     * @param source - source used to read profiles, or null to read them from disk directly.
+     * @param verboseOutput - more process details are shown to the user if true.
+     * @return an up to date DirectoryView.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     */
+    public static DirectoryView open(File directory, ProfileSource source, boolean verboseOutput) throws IOException, ParseException
+    {
+        File canonical = directory.getCanonicalFile();
+        long generation = ModuleMappings.getGeneration();
+        DirectoryView view = OPEN.compute(canonical.getPath(), (path, existing) ->
+                existing != null && existing.generation == generation ? existing : new DirectoryView(canonical, ModuleDictionary.getShared(), generation));
+
+        synchronized(view)
+        {
+            view.update(source, verboseOutput);
+        }
+
+        return view;
+    }
+
+    /**
+     * Applies the current contents of a single profile to the view, adding it if it is new. Only the modules the
+     * profile gained or lost since it was last applied are updated.
+     * @param profile - the profile's file, which should be in the viewed directory.
+     * @param contents - the profile's enabled modules, which must not be modified afterwards.
+     */
+    public synchronized void apply(File profile, Profile contents)
+    {
+        long started = Statistics.start();
+        Member previous = members.put(profile.getName(), new Member(profile.length(), profile.lastModified(), contents));
+        if(previous == null)
+        {
+            setMemberCount(members.size());
+            for(int id = contents.nextModule(0); id >= 0; id = contents.nextModule(id + 1))
+                increment(id);
+            Statistics.end(Statistics.Phase.OPERATION, started);
+            return;
+        }
+
+        Profile removed = previous.contents.difference(contents);
+        for(int id = removed.nextModule(0); id >= 0; id = removed.nextModule(id + 1))
+            decrement(id);
+
+        Profile added = contents.difference(previous.contents);
+        for(int id = added.nextModule(0); id >= 0; id = added.nextModule(id + 1))
+            increment(id);
+        Statistics.end(Statistics.Phase.OPERATION, started);
+    }
+
+    /**
+     * Removes a profile from the view, as if it had been deleted from the directory.
+     * @param name - the profile's file name within the directory.
+     * @return true if the profile was part of the view.
+     */
+    public synchronized boolean remove(String name)
+    {
+        Member previous = members.remove(name);
+        if(previous == null)
+            return false;
+
+        for(int id = previous.contents.nextModule(0); id >= 0; id = previous.contents.nextModule(id + 1))
+            decrement(id);
+        setMemberCount(members.size());
+
+        return true;
+    }
+
+    /**
+     * Obtains the union of every profile in the view.
+     * @return a new Profile enabling every module enabled by at least one profile.
+     */
+    public synchronized Profile getUnion()
+    {
+        return union.copy();
+    }
+
+    /**
+     * Obtains the intersection of every profile in the view.
+     * @return a new Profile enabling every module enabled by all of the profiles, which is empty if there are none.
+     */
+    public synchronized Profile getIntersection()
+    {
+        if(members.isEmpty())
+            return new Profile(dictionary);
+
+        return modulesByCount.get(members.size()).copy();
+    }
+
+    /**
+     * Obtains the number of profiles in the view.
+     * @return the number of profiles.
+     */
+    public synchronized int size()
+    {
+        return members.size();
+    }
+
+    /**
+     * Brings the view up to date with the directory, reading only the profiles which are new or have changed.
+     * @param source - source used to read profiles, or null to read them from disk directly.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    private void update(ProfileSource source, boolean verboseOutput) throws IOException, ParseException
+    {
+        HashMap<String, Member> unseen = new HashMap<String, Member>(members);
+        for(File profile : ProfileCalculations.listProfiles(directory))
+        {
+            Member member = unseen.remove(profile.getName());
+            if(member != null && member.matches(profile))
+                continue;
+
+            apply(profile, source == null ? ProfileCalculations.readProfileFile(profile) : source.read(profile));
+            if(verboseOutput)
+                System.out.println((member == null ? "Added " : "Updated ") + profile.getPath() + " in the directory view");
+        }
+
+        for(String name : unseen.keySet())
+        {//Profiles which are no longer in the directory.
+            remove(name);
+            if(verboseOutput)
+                System.out.println("Removed " + name + " from the directory view");
+        }
+    }
+
+    /**
+     * Makes sure there is a group of modules for every count from zero to the number of profiles. Modules with a
+     * count of zero are not recorded, as every module in the dictionary would otherwise need to be.
+     * @param memberCount - the number of profiles now in the view.
+     */
+    private void setMemberCount(int memberCount)
+    {
+        while(modulesByCount.size() <= memberCount)
+            modulesByCount.add(new Profile(dictionary));
+    }
+
+    private void increment(int id)
+    {
+        if(id >= counts.length)
+            counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+
+        int count = counts[id]++;
+        if(count == 0)
+            union.addId(id);
+        else
+            modulesByCount.get(count).removeId(id);
+        modulesByCount.get(count + 1).addId(id);
+    }
+
+    private void decrement(int id)
+    {
+        int count = counts[id]--;
+        modulesByCount.get(count).removeId(id);
+        if(count == 1)
+            union.removeId(id);
+        else
+            modulesByCount.get(count - 1).addId(id);
+    }
+
+    /**
+     * A profile in the view, along with the size and modification time it had when it was read.
+     */
+    private static final class Member
+    {
+        private final long length;
+        private final long lastModified;
+        private final Profile contents;
+
+        private Member(long length, long lastModified, Profile contents)
+        {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.contents = contents;
+        }
+
+        private boolean matches(File profile)
+        {
+            return profile.length() == length && profile.lastModified() == lastModified;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node in a parsed set expression: either a single profile operand or an operation over other nodes.
+ * Unions and intersections hold any number of children, as chains of the same associative operation are flattened.
+ *
+ * @author Daniel Burton
+ */
+public class ExpressionNode
+{
+    /**
+     * Defines the kinds of node an expression may contain.
+     */
+    public enum Operator
+    {
+        OPERAND, UNION, INTERSECTION, DIFFERENCE;
+    }
+
+    private final Operator operator;
+    private final File operand;
+    private final List<ExpressionNode> children;
+    private final String key;
+
+    /**
+     * Creates a node representing a single profile, or a directory of profiles to be combined by union.
+     * @param operand - canonical location of the profile or directory.
+     */
+    public ExpressionNode(File operand)
+    {
+        this.operator = Operator.OPERAND;
+        this.operand = operand;
+        this.children = Collections.emptyList();
+        this.key = operand.getPath();
+    }
+
+    /**
+     * Creates a node representing an operation over other nodes.
+     * Children of a union or intersection which are themselves the same operation are absorbed into this node.
+     * @param operator - the operation to perform.
+     * @param left - the first operand.
+     * @param right - the second operand.
+     */
+    public ExpressionNode(Operator operator, ExpressionNode left, ExpressionNode right)
+    {
+        this.operator = operator;
+        this.operand = null;
+        this.children = new ArrayList<ExpressionNode>();
+
+        if(operator == Operator.DIFFERENCE)
+        {
+            children.add(left);
+            children.add(right);
+            key = "(" + left.key + " - " + right.key + ")";
+        }
+        else
+        {
+            absorb(left);
+            absorb(right);
+
+            ArrayList<String> childKeys = new ArrayList<String>();
+            for(ExpressionNode child : children)
+                childKeys.add(child.key);
+            Collections.sort(childKeys); //Both operations are commutative, so operand order must not affect the key.
+
+            key = "(" + String.join(operator == Operator.UNION ? " | " : " & ", childKeys) + ")";
+        }
+    }
+
+    /**
+     * Obtains the operation this node represents.
+     * @return the node's Operator.
+     */
+    public Operator getOperator()
+    {
+        return operator;
+    }
+
+    /**
+     * Obtains the profile or directory this node represents, if it is an operand.
+     * @return the operand's File, or null if this node is an operation.
+     */
+    public File getOperand()
+    {
+        return operand;
+    }
+
+    /**
+     * Obtains the operands of this node's operation.
+     * @return a List of child nodes, which is empty for an operand node.
+     */
+    public List<ExpressionNode> getChildren()
+    {
+        return children;
+    }
+
+    /**
+     * Obtains a canonical description of this node, which is identical for any two equivalent subexpressions.
+     * @return the node's canonical key.
+     */
+    public String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Adds a child to this node, flattening it if it is the same operation as this node and dropping it if an
+     * identical child is already present.
+     * @param child - node to add.
+     */
+    private void absorb(ExpressionNode child)
+    {
+        List<ExpressionNode> toAdd = child.operator == operator ? child.children : Collections.singletonList(child);
+        for(ExpressionNode node : toAdd)
+        {
+            boolean duplicate = false;
+            for(ExpressionNode existing : children)
+                duplicate |= existing.key.equals(node.key);
+
+            if(!duplicate)
+                children.add(node);
+        }
+    }
+}
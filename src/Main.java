@@ -4,7 +4,9 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.URL;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Holds all fundamental program logic relating to the KTANE Profile Calculator, such as startup.
@@ -18,14 +20,22 @@ public class Main
      */
     public enum CalculatorMode
     {
-        CREATE, CREATENAME, UNION, INTERSECTION, DIFFERENCE, UNRECOGNISED;
+        CREATE, CREATENAME, UNION, INTERSECTION, DIFFERENCE, EXPRESSION, REFRESH, BATCH, CONVERT, QUERY, COVERAGE, SIMILAR, MATRIX, ATLEAST, COMPLEMENT, UNRECOGNISED;
     }
 
     private static CalculatorMode mode = null;
     private static boolean verbose = false;
+    private static boolean parallel = false;
+    private static boolean sorted = false;
+    private static boolean streaming = false;
+    private static boolean normalise = false;
+    private static boolean stats = false;
+    private static boolean statsJson = false;
     private static File profileOperandOne = null;
     private static File profileOperandTwo = null;
     private static File destinationTarget = null;
+    private static String expression = null;
+    private static final ProfileCache profileCache = new ProfileCache();
     private static final String VERSION = "1.2";
     private static final String VERSION_FILE_ADDRESS = "https://github.com/Burniel123/KTANEProfileCalculator/blob/master/VERSION.txt";
 
@@ -35,20 +45,46 @@ public class Main
      *             Flags to indicate which operations to use.
      *             References to files which should be used in the calculation.
      *             Desired name for the completed profile.
+     *             -noupdatecheck to skip checking for a newer version.
+     *             -batch script.txt [-verbose] [-stats|-stats-json] to run a batch script and exit without showing a prompt.
+     *             -server [-verbose] to keep running in the background, carrying out commands sent by clients.
+     *             -client [command] to send a command (or each line of standard input) to a running server.
      */
     public static void main(String[] args)
     {
+        int batchIndex = Arrays.asList(args).indexOf("-batch");
+        if(batchIndex >= 0)
+        {//Scripts run this way are intended for unattended use, so the program exits once the script is complete.
+            runBatch(args, batchIndex);
+            return;
+        }
+
+        int clientIndex = Arrays.asList(args).indexOf("-client");
+        if(clientIndex >= 0)
+        {//Clients only pass commands on, so nothing else is loaded.
+            runClient(args, clientIndex);
+            return;
+        }
+
+        if(Arrays.asList(args).contains("-server"))
+        {
+            runServer(Arrays.asList(args).contains("-verbose"));
+            return;
+        }
+
         System.out.println("*********************The KTANE Profile Calculator*********************");
         System.out.println("                      Software created by Burniel");
         System.out.println("                      Documentation available at:");
         System.out.println("       https://github.com/Burniel123/KTANEProfileCalculator#usage");
         System.out.println("      Enter a valid command at any time or type \"help\" for help.");
-        checkForUpdate();
+        if(!Arrays.asList(args).contains("-noupdatecheck"))
+            checkForUpdate();
         System.out.println("------------------------------------------------------------------------");
 
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in)); //Shared by every command, so input buffered ahead is not lost.
+
         while(true)
         {//Program runs until the user manually closes it, allowing them to complete as many profile operations as they wish.
-            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
             boolean successfulRead = false;
             String userInput = null;
             String[] userCommand = null;
@@ -58,6 +94,8 @@ public class Main
                 try
                 {
                     userInput = reader.readLine();
+                    if(userInput == null)
+                        return; //No more commands can be entered.
                     userCommand = userInput.split(" ");
                     successfulRead = true;
                 }
@@ -78,10 +116,27 @@ public class Main
             {
                 System.out.println("To create a profile from a text file of module codes, use !c [-verbose] textFile.txt [destination.json]");
                 System.out.println("To create a profile from a text file of module names, use !n [-verbose] textFile.txt [destination.json]");
+                System.out.println("To refresh the cached module names used by !n, use !r [-verbose] [localRepositoryCopy.json]");
                 System.out.println("To calculate the union of two profiles, use !u [-verbose] profile1.json profile2.json [destination.json]");
                 System.out.println("To calculate the intersection of two profiles, use !i [-verbose] profile1.json profile2.json [destination.json]");
                 System.out.println("To calculate the union/intersection of >2 profiles, substitute the two profiles with the name of a directory containing several profile JSONs (the directory may not contain anything else)");
+                System.out.println("Add -parallel to a union/intersection of a directory to read and combine its profiles on every core (modules are then listed in sorted order)");
+                System.out.println("Add -streaming to a union/intersection to merge its profiles in sorted order using the same memory however many there are (modules are then listed in sorted order)");
+                System.out.println("Add -normalise to any calculation to write whichever is smaller: the modules the profile enables, or the repository's modules it disables");
+                System.out.println("Add -sorted to any command which creates a profile to list its modules in alphabetical order");
+                System.out.println("Add -stats to any command to see how long each phase took once it completes, or -stats-json for the same figures as JSON");
                 System.out.println("To calculate the difference of profile1 - profile2, use !d [-verbose] profile1.json profile2.json [destination.json]");
+                System.out.println("To create a profile of every module in the repository which a profile (or every profile in a directory) does not enable, use !a [-verbose] profile.json|directory [destination.json]");
+                System.out.println("To find the modules enabled by at least count of the profiles in a directory, use !k [-verbose] count directory [destination.json]");
+                System.out.println("To evaluate a compound expression in one step, use !e [-verbose] \"(profile1 | profile2) - (profile3 & profile4)\" [destination.json]");
+                System.out.println("To find which profiles in a directory enable modules, use !q [-verbose] directory contains moduleCode [moduleCode...]");
+                System.out.println("To find which profiles in a directory enable every/any module of a mission, use !q [-verbose] directory covers-all|covers-any mission.json|mission.txt");
+                System.out.println("To see which modules of a mission each member of a team is missing, use !m [-verbose] mission.txt|mission.json teamDirectory [destinationDirectory]");
+                System.out.println("To find the profiles in a directory most like a profile, use !s [-verbose] directory profile.json [count]");
+                System.out.println("To find every pair of profiles in a directory at least a given similarity apart (0 to 1), use !s [-verbose] directory pairs threshold");
+                System.out.println("To see, for every pair of team members, the modules one can do which the other cannot, and each member's unique modules, use !x [-verbose] teamDirectory [destinationDirectory]");
+                System.out.println("To convert a profile, or a directory of profiles, between JSON and the compact binary format, use !v [-verbose] profile.json|profile.kpcp|directory [destination]");
+                System.out.println("To run a script of commands which pass results to each other in memory, use !b [-verbose] script.txt");
                 System.out.println("Square brackets indicate optional parts of a command");
                 System.out.println("Full documentation is at https://github.com/Burniel123/KTANEProfileCalculator#usage");
                 continue;
@@ -98,6 +153,37 @@ public class Main
                     continue;
                 }
 
+                if (arg.equals("-parallel"))
+                {//Unions and intersections over directories may be spread across every core.
+                    parallel = true;
+                    continue;
+                }
+
+                if (arg.equals("-streaming"))
+                {//Archive-scale unions and intersections may be merged without holding every profile.
+                    streaming = true;
+                    continue;
+                }
+
+                if (arg.equals("-normalise"))
+                {//Profiles enabling nearly every module are far smaller written as a disabled list.
+                    normalise = true;
+                    continue;
+                }
+
+                if (arg.equals("-sorted"))
+                {//Created profiles may list their modules in a canonical order.
+                    sorted = true;
+                    continue;
+                }
+
+                if (arg.equals("-stats") || arg.equals("-stats-json"))
+                {//Time spent in each phase of the command may be reported once it completes.
+                    stats = true;
+                    statsJson = arg.equals("-stats-json");
+                    continue;
+                }
+
                 if(arg.length() > 2)
                 {//All non-verbose flags should only contain the - character and a letter.
                     mode = CalculatorMode.UNRECOGNISED;
@@ -110,13 +196,29 @@ public class Main
                     case 'u' : mode = CalculatorMode.UNION;break;
                     case 'i' : mode = CalculatorMode.INTERSECTION;break;
                     case 'd' : mode = CalculatorMode.DIFFERENCE;break;
+                    case 'e' : mode = CalculatorMode.EXPRESSION;break;
+                    case 'r' : mode = CalculatorMode.REFRESH;break;
+                    case 'b' : mode = CalculatorMode.BATCH;break;
+                    case 'v' : mode = CalculatorMode.CONVERT;break;
+                    case 'q' : mode = CalculatorMode.QUERY;break;
+                    case 'm' : mode = CalculatorMode.COVERAGE;break;
+                    case 's' : mode = CalculatorMode.SIMILAR;break;
+                    case 'x' : mode = CalculatorMode.MATRIX;break;
+                    case 'k' : mode = CalculatorMode.ATLEAST;break;
+                    case 'a' : mode = CalculatorMode.COMPLEMENT;break;
                     default : mode = CalculatorMode.UNRECOGNISED;break;
                 }
             }
 
+            if(stats)
+                Statistics.begin();
+
             try
             {
-                parseOperands(userCommand);
+                if(mode == CalculatorMode.EXPRESSION)
+                    parseExpression(userInput);
+                else if(mode != CalculatorMode.QUERY && mode != CalculatorMode.COVERAGE && mode != CalculatorMode.SIMILAR && mode != CalculatorMode.MATRIX && mode != CalculatorMode.ATLEAST)
+                    parseOperands(userCommand);
 
                 if(mode == CalculatorMode.UNRECOGNISED)
                 {//Program must terminate if unable to determine which function to perform.
@@ -124,6 +226,54 @@ public class Main
                     System.err.println("Please see the documentation for examples of how to use this tool, or type \"help\".");
                     System.exit(-1);
                 }
+                else if(mode == CalculatorMode.BATCH)
+                {
+                    if(profileOperandOne == null)
+                        throw new ArgumentException("Batch operation must have exactly one script file as its operand.");
+
+                    int written = new BatchScript(profileOperandOne, verbose, profileCache).run();
+
+                    System.out.println("Operation success, batch script completed and wrote " + written + " profiles.");
+                }
+                else if(mode == CalculatorMode.QUERY)
+                {
+                    runQuery(userCommand);
+                }
+                else if(mode == CalculatorMode.COVERAGE)
+                {
+                    runCoverage(userCommand);
+                }
+                else if(mode == CalculatorMode.SIMILAR)
+                {
+                    runSimilar(userCommand);
+                }
+                else if(mode == CalculatorMode.MATRIX)
+                {
+                    runMatrix(userCommand);
+                }
+                else if(mode == CalculatorMode.ATLEAST)
+                {
+                    runAtLeast(userCommand);
+                }
+                else if(mode == CalculatorMode.CONVERT)
+                {
+                    if(profileOperandOne == null || !profileOperandOne.exists())
+                        throw new ArgumentException("Convert operation must have an existing profile or directory as its operand.");
+
+                    int converted = new ProfileConverter(profileOperandOne, destinationTarget, verbose).convert();
+
+                    System.out.println("Operation success, converted " + converted + " profiles.");
+                }
+                else if(mode == CalculatorMode.REFRESH)
+                {
+                    String source = Settings.getString("mappings.source", ModuleMappings.DEFAULT_SOURCE);
+                    if(profileOperandOne != null)
+                        source = profileOperandOne.getPath();
+
+                    ModuleMappings mappings = ModuleMappings.refresh(source, verbose);
+
+                    System.out.println("Operation success, refreshed mappings for " + mappings.size() + " modules from " + source);
+                }
                 else if(mode == CalculatorMode.CREATE || mode == CalculatorMode.CREATENAME)
                 {
                     ProfileCreator pc = null;
@@ -140,7 +290,9 @@ public class Main
                     if(verbose)
                         System.out.println("Creating profile from list in file " + profileOperandOne.getPath());
 
-                    pc.createProfile();
+                    pc.setSortedOutput(sorted);
+                    Profile created = pc.createProfile();
+                    profileCache.stored(pc.getTargetFile(), created); //Later commands may use the new profile without reading it.
 
                     System.out.println("Operation success, created profile located at " + pc.getTargetFile().getAbsolutePath());
                     System.out.println("You may continue to enter valid commands to further mutate these or any other profiles.");
@@ -148,7 +300,11 @@ public class Main
                 else
                 {
                     ProfileCalculations pc = null;
-                    if(profileOperandTwo != null && destinationTarget != null)
+                    if(mode == CalculatorMode.EXPRESSION && destinationTarget != null)
+                        pc = new ProfileCalculations(expression, verbose, destinationTarget);
+                    else if(mode == CalculatorMode.EXPRESSION)
+                        pc = new ProfileCalculations(expression, verbose);
+                    else if(profileOperandTwo != null && destinationTarget != null)
                         pc = new ProfileCalculations(profileOperandOne, profileOperandTwo, verbose, destinationTarget);
                     else if(profileOperandTwo != null)
                         pc = new ProfileCalculations(profileOperandOne, profileOperandTwo, verbose);
@@ -157,17 +313,25 @@ public class Main
                     else
                         pc = new ProfileCalculations(profileOperandOne, verbose);
 
+                    pc.setParallel(parallel);
+                    pc.setStreaming(streaming);
+                    pc.setNormalise(normalise);
+                    pc.setSortedOutput(sorted);
+                    pc.setProfileSource(profileCache);
+                    pc.setUseDirectoryView(DirectoryView.isEnabled());
+                    pc.setResultCache(ResultCache.getShared());
+
                     if(mode == CalculatorMode.UNION)
                         pc.computeUnion();
                     else if(mode == CalculatorMode.INTERSECTION)
                         pc.computeIntersection();
+                    else if(mode == CalculatorMode.EXPRESSION)
+                        pc.computeExpression();
+                    else if(mode == CalculatorMode.COMPLEMENT)
+                        pc.computeComplement();
                     else
                         pc.computeDifference();
 
-                    profileOperandOne = null;
-                    profileOperandTwo = null;
-                    destinationTarget = null;
-                    verbose = false;
                     System.out.println("Operation success, created profile located at " + pc.getTargetFile().getAbsolutePath());
                     System.out.println("You may continue to enter valid commands to further mutate these or any other profiles.");
                 }
@@ -177,11 +341,139 @@ public class Main
                 System.out.println("Unable to complete operation due to following reason:");
                 System.out.println(e.getMessage());
             }
+            finally
+            {//Flags and operands only apply to one command, whether or not it succeeded.
+                if(stats)
+                {
+                    Statistics.finish();
+                    printStatistics(statsJson);
+                }
+                resetCommand();
+            }
         }
 
 
     }
 
+    /**
+     * Clears every flag and operand given with a command, so that none of them carry over to the next command.
+     */
+    private static void resetCommand()
+    {
+        verbose = false;
+        parallel = false;
+        sorted = false;
+        streaming = false;
+        normalise = false;
+        stats = false;
+        statsJson = false;
+        profileOperandOne = null;
+        profileOperandTwo = null;
+        destinationTarget = null;
+        expression = null;
+    }
+
+    /**
+     * Runs a batch script given on the program's command line, exiting with a non-zero status if it fails.
+     * @param args - the program's command line arguments.
+     * @param batchIndex - position of the -batch flag within the arguments.
+     */
+    private static void runBatch(String[] args, int batchIndex)
+    {
+        if(batchIndex + 1 >= args.length)
+        {
+            System.err.println("Invalid syntax! -batch must be followed by the path of a script.");
+            System.exit(-1);
+        }
+
+        boolean batchStats = Arrays.asList(args).contains("-stats") || Arrays.asList(args).contains("-stats-json");
+        if(batchStats)
+            Statistics.begin();
+
+        try
+        {
+            int written = new BatchScript(new File(args[batchIndex + 1]), Arrays.asList(args).contains("-verbose"), new ProfileCache()).run();
+            System.out.println("Batch script completed and wrote " + written + " profiles.");
+
+            if(batchStats)
+            {
+                Statistics.finish();
+                printStatistics(Arrays.asList(args).contains("-stats-json"));
+            }
+        }
+        catch(ArgumentException | ListFormatException | IOException | ParseException e)
+        {
+            System.err.println("Unable to complete batch script due to following reason:");
+            System.err.println(e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Prints the statistics collected for the command which has just completed.
+     * @param json - true to print them as a single line of JSON, false to print them as a table.
+     */
+    private static void printStatistics(boolean json)
+    {
+        if(json)
+            System.out.println(Statistics.toJson());
+        else
+            Statistics.printSummary();
+    }
+
+    /**
+     * Runs the calculator as a server until the program is stopped, exiting with a non-zero status if it cannot start.
+     * @param verboseOutput - more process details are shown to clients if true.
+     */
+    private static void runServer(boolean verboseOutput)
+    {
+        try
+        {
+            new CalculatorServer(CalculatorServer.getConfiguredPort(), profileCache, verboseOutput).run();
+        }
+        catch(IOException e)
+        {
+            System.err.println("Unable to run the server due to following reason:");
+            System.err.println(e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Sends the command following -client on the program's command line to a running server, or sends each line of
+     * standard input if no command follows it. Exits with a non-zero status if any command fails.
+     * @param args - the program's command line arguments.
+     * @param clientIndex - position of the -client flag within the arguments.
+     */
+    private static void runClient(String[] args, int clientIndex)
+    {
+        BufferedReader commands;
+        if(clientIndex + 1 < args.length)
+        {
+            StringBuilder command = new StringBuilder();
+            for(String arg : Arrays.asList(args).subList(clientIndex + 1, args.length))
+            {//Arguments the shell kept together, such as an expression, are quoted so the server keeps them together too.
+                if(command.length() > 0)
+                    command.append(' ');
+                command.append(arg.contains(" ") ? "\"" + arg + "\"" : arg);
+            }
+            commands = new BufferedReader(new StringReader(command.toString().replace('\n', ' ')));
+        }
+        else
+            commands = new BufferedReader(new InputStreamReader(System.in)); //Read a line at a time as the server answers.
+
+        try
+        {
+            if(!CalculatorServer.send(CalculatorServer.getConfiguredPort(), commands))
+                System.exit(-1);
+        }
+        catch(IOException e)
+        {
+            System.err.println("Unable to reach the calculator server on port " + CalculatorServer.getConfiguredPort() + ", is it running?");
+            System.exit(-1);
+        }
+    }
+
     /**
      * Deduces the meaning of file operands specified for operations and assigns them to the relevant variables.
      * @param args - String array of arguments entered.
@@ -193,8 +485,26 @@ public class Main
         boolean directorySupplied = false;
         boolean unacceptableFilesSupplied = false;
 
-        if(mode == CalculatorMode.CREATE || mode == CalculatorMode.CREATENAME)
-        {//Create is a unary operation and thus has a different format for specifying files to use.
+        if(mode == CalculatorMode.REFRESH || mode == CalculatorMode.BATCH)
+        {//Refresh optionally takes a local copy of the manual repository's JSON to read mappings from, batch takes a script.
+            for(String arg : args)
+            {
+                if(arg.startsWith("-") || arg.startsWith("!"))
+                    continue;
+
+                if(fileOperandsCount == 0 && new File(arg).isFile())
+                {
+                    fileOperandsCount++;
+                    profileOperandOne = new File(arg);
+                }
+                else
+                {
+                    throw new ArgumentException("This operation must have at most one existing file as its operand.");
+                }
+            }
+        }
+        else if(mode == CalculatorMode.CREATE || mode == CalculatorMode.CREATENAME || mode == CalculatorMode.CONVERT || mode == CalculatorMode.COMPLEMENT)
+        {//Create, convert and complement are unary operations and thus have a different format for specifying files to use.
             for(String arg : args)
             {//A second iteration of the argument list to establish which file locations are to be used.
                 if(arg.startsWith("-") || arg.startsWith("!"))
@@ -202,6 +512,9 @@ public class Main
 
                 if(fileOperandsCount == 0)
                 {//First file supplied must be an existing file in create mode.
+                    if(mode == CalculatorMode.COMPLEMENT && !new File(arg).exists())
+                        throw new ArgumentException("Complement operation must have an existing profile or directory as its operand.");
+
                     fileOperandsCount++;
                     profileOperandOne = new File(arg);
                 }
@@ -212,10 +525,13 @@ public class Main
                 }
                 else
                 {
-                    throw new ArgumentException("Create operation must have exactly one valid operand.");
+                    throw new ArgumentException("This operation must have exactly one valid operand.");
                 }
 
             }
+
+            if(mode == CalculatorMode.COMPLEMENT && fileOperandsCount == 0)
+                throw new ArgumentException("Complement operation must have an existing profile or directory as its operand.");
         }
         else
         {//All other operations are binary and thus can be treated in similar ways initially.
@@ -259,33 +575,242 @@ public class Main
         }
     }
 
-    public static void checkForUpdate()
+    /**
+     * Answers a membership query against the index of a directory of profiles, printing the matching profiles.
+     * @param args - String array of arguments entered.
+     * @throws ArgumentException - in the event that the query is badly formed.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     * @throws ListFormatException - in the event that a mission list is badly formatted.
+     */
+    private static void runQuery(String[] args) throws ArgumentException, IOException, ParseException, ListFormatException
     {
+        ArrayList<String> operands = new ArrayList<String>();
+        for(String arg : args)
+        {
+            if(!arg.isEmpty() && !arg.startsWith("-") && !arg.startsWith("!"))
+                operands.add(arg);
+        }
+
+        if(operands.size() < 3 || !new File(operands.get(0)).isDirectory())
+            throw new ArgumentException("Query must be a directory, then contains, covers-all or covers-any, then what to look for.");
+
+        String query = operands.get(1);
+        ArrayList<String> codes;
+        if(query.equals("contains"))
+        {
+            codes = new ArrayList<String>(operands.subList(2, operands.size()));
+        }
+        else if(query.equals("covers-all") || query.equals("covers-any"))
+        {
+            if(operands.size() != 3 || !new File(operands.get(2)).isFile())
+                throw new ArgumentException("A covers query must name exactly one existing mission profile or module list.");
+
+            File mission = new File(operands.get(2));
+            if(mission.getName().endsWith(".txt"))
+                codes = new ProfileCreator(mission, false, false).buildProfile().getModuleCodes();
+            else
+                codes = profileCache.read(mission).getModuleCodes();
+        }
+        else
+        {
+            throw new ArgumentException("Unrecognised query " + query + ", use contains, covers-all or covers-any.");
+        }
+
+        ProfileIndex index = ProfileIndex.open(new File(operands.get(0)), profileCache, verbose);
+        ArrayList<File> matches = query.equals("covers-any") ? index.coversAny(codes) : index.coversAll(codes);
+
+        for(File match : matches)
+            System.out.println(match.getName());
+        System.out.println("Operation success, " + matches.size() + " of " + index.size() + " profiles match.");
+    }
+
+    /**
+     * Reports a mission's coverage by a team, reading the mission and each member's profile once.
+     * @param args - String array of arguments entered.
+     * @throws ArgumentException - in the event that the operands are unsuitable.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     * @throws ListFormatException - in the event that a mission list is badly formatted.
+     */
+    private static void runCoverage(String[] args) throws ArgumentException, IOException, ParseException, ListFormatException
+    {
+        ArrayList<String> operands = new ArrayList<String>();
+        for(String arg : args)
+        {
+            if(!arg.isEmpty() && !arg.startsWith("-") && !arg.startsWith("!"))
+                operands.add(arg);
+        }
+
+        if(operands.size() < 2 || operands.size() > 3 || !new File(operands.get(0)).isFile() || !new File(operands.get(1)).isDirectory())
+            throw new ArgumentException("Coverage operation must have a mission list or profile, then a team directory, then optionally a destination directory.");
+
+        File missionFile = new File(operands.get(0));
+        Profile mission;
+        if(missionFile.getName().endsWith(".txt"))
+            mission = new ProfileCreator(missionFile, false, false).buildProfile();
+        else
+            mission = profileCache.read(missionFile);
+
+        MissionCoverage coverage = new MissionCoverage(mission, new File(operands.get(1)), operands.size() == 3 ? new File(operands.get(2)) : null, verbose);
+        coverage.setProfileSource(profileCache);
+        coverage.setSortedOutput(sorted);
+        Profile uncovered = coverage.report();
+
+        System.out.println("Operation success, " + uncovered.size() + " of " + mission.size() + " modules are not covered by the team.");
+    }
+
+    /**
+     * Finds the profiles in a directory most similar to a profile, or every pair of profiles in a directory which are
+     * at least as similar as a threshold, printing each match with its similarity.
+     * @param args - String array of arguments entered.
+     * @throws ArgumentException - in the event that the operands are unsuitable.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     */
+    private static void runSimilar(String[] args) throws ArgumentException, IOException, ParseException
+    {
+        ArrayList<String> operands = new ArrayList<String>();
+        for(String arg : args)
+        {
+            if(!arg.isEmpty() && !arg.startsWith("-") && !arg.startsWith("!"))
+                operands.add(arg);
+        }
+
+        if(operands.size() < 2 || operands.size() > 3 || !new File(operands.get(0)).isDirectory())
+            throw new ArgumentException("Similarity search must have a directory, then a profile and optionally a count, or pairs and a threshold.");
+
+        SimilaritySearch search = new SimilaritySearch(new File(operands.get(0)), profileCache, verbose);
+        ArrayList<SimilaritySearch.Match> matches;
         try
         {
-            URL url = new URL(VERSION_FILE_ADDRESS);
-            BufferedReader in = new BufferedReader(new InputStreamReader(url.openStream()));
-            String versionLine = null;
-            boolean correctVersionFound = false;
-            while((versionLine = in.readLine()) != null)
+            if(operands.get(1).equals("pairs"))
             {
-                if(versionLine.contains(VERSION))
-                {
-                    correctVersionFound = true;
-                    break;
-                }
-            }
+                double threshold = operands.size() == 3 ? Double.parseDouble(operands.get(2)) : -1;
+                if(threshold < 0 || threshold > 1)
+                    throw new ArgumentException("A similarity threshold between 0 and 1 must be given.");
 
-            if(!correctVersionFound)
+                matches = search.pairsAbove(threshold);
+            }
+            else
             {
-                System.out.println("A new version of KTANEProfileCalculator is available! Please update here:");
-                System.out.println("      https://github.com/Burniel123/KTANEProfileCalculator/releases");
+                if(!new File(operands.get(1)).isFile())
+                    throw new ArgumentException("Profile " + operands.get(1) + " does not exist.");
+
+                int count = operands.size() == 3 ? Integer.parseInt(operands.get(2)) : 10;
+                if(count < 1)
+                    throw new ArgumentException("At least one similar profile must be asked for.");
+
+                matches = search.nearest(new File(operands.get(1)), count);
             }
         }
-        catch(IOException e)
+        catch(NumberFormatException e)
         {
-            System.out.println("Unable to check for updates. If this happens regularly, please report a bug.");
+            throw new ArgumentException("Unable to read the number " + operands.get(2) + ".");
         }
 
+        for(SimilaritySearch.Match match : matches)
+            System.out.println(String.format("%.3f  %s", match.getSimilarity(), match.getFirst()) + (match.getSecond() == null ? "" : "  " + match.getSecond()));
+        System.out.println("Operation success, found " + matches.size() + " similar " + (operands.get(1).equals("pairs") ? "pairs." : "profiles."));
+    }
+
+    /**
+     * Compares every pair of members of a team, reading each member's profile once.
+     * @param args - String array of arguments entered.
+     * @throws ArgumentException - in the event that the operands are unsuitable.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     */
+    private static void runMatrix(String[] args) throws ArgumentException, IOException, ParseException
+    {
+        ArrayList<String> operands = new ArrayList<String>();
+        for(String arg : args)
+        {
+            if(!arg.isEmpty() && !arg.startsWith("-") && !arg.startsWith("!"))
+                operands.add(arg);
+        }
+
+        if(operands.size() < 1 || operands.size() > 2 || !new File(operands.get(0)).isDirectory())
+            throw new ArgumentException("Difference matrix must have a team directory, then optionally a destination directory.");
+
+        DifferenceMatrix matrix = new DifferenceMatrix(new File(operands.get(0)), operands.size() == 2 ? new File(operands.get(1)) : null, verbose);
+        matrix.setProfileSource(profileCache);
+        matrix.setSortedOutput(sorted);
+        int differences = matrix.report();
+
+        System.out.println("Operation success, calculated " + differences + " differences.");
+    }
+
+    /**
+     * Creates a profile of the modules enabled by at least a given number of the profiles in a directory.
+     * @param args - String array of arguments entered.
+     * @throws ArgumentException - in the event that the operands are unsuitable.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     */
+    private static void runAtLeast(String[] args) throws ArgumentException, IOException, ParseException
+    {
+        ArrayList<String> operands = new ArrayList<String>();
+        for(String arg : args)
+        {
+            if(!arg.isEmpty() && !arg.startsWith("-") && !arg.startsWith("!"))
+                operands.add(arg);
+        }
+
+        if(operands.size() < 2 || operands.size() > 3 || !new File(operands.get(1)).isDirectory())
+            throw new ArgumentException("At least operation must have a count, then a directory of profiles, then optionally a destination profile.");
+
+        int minimum;
+        try
+        {
+            minimum = Integer.parseInt(operands.get(0));
+        }
+        catch(NumberFormatException e)
+        {
+            throw new ArgumentException("Unable to read the number " + operands.get(0) + ".");
+        }
+
+        ProfileCalculations pc;
+        if(operands.size() == 3)
+            pc = new ProfileCalculations(new File(operands.get(1)), verbose, new File(operands.get(2)));
+        else
+            pc = new ProfileCalculations(new File(operands.get(1)), verbose);
+        pc.setProfileSource(profileCache);
+        pc.setResultCache(ResultCache.getShared());
+        pc.setNormalise(normalise);
+        pc.computeAtLeast(minimum);
+
+        System.out.println("Operation success, created profile located at " + pc.getTargetFile().getAbsolutePath());
+    }
+
+    /**
+     * Extracts the set expression and optional destination from an expression command.
+     * The expression must be enclosed in double quotes, and anything following the closing quote is the destination.
+     * @param userInput - the full command as entered.
+     * @throws ArgumentException - in the event that the expression is not quoted correctly.
+     */
+    private static void parseExpression(String userInput) throws ArgumentException
+    {
+        int start = userInput.indexOf('"');
+        int end = userInput.lastIndexOf('"');
+
+        if(start < 0 || end == start)
+            throw new ArgumentException("Expression must be enclosed in double quotes.");
+
+        expression = userInput.substring(start + 1, end);
+
+        String destination = userInput.substring(end + 1).trim();
+        if(destination.contains(" "))
+            throw new ArgumentException("Expression operation must have at most one destination file.");
+        if(!destination.isEmpty())
+            destinationTarget = new File(destination);
+    }
+
+    /**
+     * Starts a background check for a newer version of the program, which does not delay the prompt.
+     */
+    public static void checkForUpdate()
+    {
+        new UpdateChecker(VERSION, VERSION_FILE_ADDRESS).start();
     }
 }
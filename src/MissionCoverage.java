@@ -0,0 +1,150 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compares a mission against every member of a team in a single pass, in place of a difference per member.
+ *
+ * The mission is read once and each member's profile is read once. For each member the modules of the mission they
+ * cannot do are reported as soon as their profile has been read, while a count of how many members can do each of
+ * the mission's modules is kept as the pass goes along. Once every member has been read, the modules nobody in the
+ * team can do are reported along with the counts for every module.
+ *
+ * @author Daniel Burton
+ */
+public class MissionCoverage
+{
+    private final Profile mission;
+    private final File teamDirectory;
+    private final File targetDirectory;
+    private final boolean verboseOutput;
+    private ProfileSource profileSource = null;
+    private boolean sortedOutput = false;
+
+    /**
+     * Creates a coverage report of a mission against a team.
+     * @param mission - the mission's modules.
+     * @param teamDirectory - directory containing one profile per team member.
+     * @param targetDirectory - directory to write each member's missing modules and the uncovered modules to as
+     *                        profiles, or null to only report them.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    public MissionCoverage(Profile mission, File teamDirectory, File targetDirectory, boolean verboseOutput)
+    {
+        this.mission = mission;
+        this.teamDirectory = teamDirectory;
+        this.targetDirectory = targetDirectory;
+        this.verboseOutput = verboseOutput;
+    }
+
+    /**
+     * Sets where member profiles are read from, such as a cache of profiles read earlier in the session.
+     * @param profileSource - source of profiles, or null to read them from disk.
+     */
+    public void setProfileSource(ProfileSource profileSource)
+    {
+        this.profileSource = profileSource;
+    }
+
+    /**
+     * Sets whether modules are listed in sorted order rather than the order they were first seen.
+     * @param sortedOutput - true if modules should be listed in sorted order.
+     */
+    public void setSortedOutput(boolean sortedOutput)
+    {
+        this.sortedOutput = sortedOutput;
+    }
+
+    /**
+     * Reads every member profile once, reporting each member's missing modules followed by the team's coverage.
+     * @return a Profile of the mission's modules which no member can do.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a member's profile cannot be parsed.
+     */
+    public Profile report() throws IOException, ParseException
+    {
+        ArrayList<File> members = ProfileCalculations.listProfiles(teamDirectory);
+        if(members.isEmpty())
+            throw new IOException("No profiles in the provided directory.");
+        if(targetDirectory != null && !targetDirectory.isDirectory() && !targetDirectory.mkdirs())
+            throw new IOException("Unable to create the directory " + targetDirectory.getPath() + ".");
+
+        int[] missionIds = new int[mission.size()];
+        int count = 0;
+        for(int id = mission.nextModule(0); id >= 0; id = mission.nextModule(id + 1))
+            missionIds[count++] = id;
+        int[] coverage = new int[missionIds.length];
+
+        for(File member : members)
+        {
+            Profile profile = profileSource == null ? ProfileCalculations.readProfileFile(member) : profileSource.read(member);
+            for(int i = 0; i < missionIds.length; i++)
+            {
+                if(profile.containsId(missionIds[i]))
+                    coverage[i]++;
+            }
+
+            Profile missing = mission.difference(profile);
+            System.out.println(member.getName() + " is missing " + missing.size() + " of " + missionIds.length + " modules" + listOf(missing));
+            if(targetDirectory != null)
+                write(missing, new File(targetDirectory, baseName(member) + "-missing.json"));
+        }
+
+        Profile uncovered = new Profile(mission.getDictionary());
+        for(int i = 0; i < missionIds.length; i++)
+        {
+            if(coverage[i] == 0)
+                uncovered.addId(missionIds[i]);
+        }
+        System.out.println("Nobody in the team can do " + uncovered.size() + " of " + missionIds.length + " modules" + listOf(uncovered));
+        if(targetDirectory != null)
+            write(uncovered, new File(targetDirectory, "uncovered.json"));
+
+        System.out.println("Members able to do each module:");
+        Integer[] order = new Integer[missionIds.length];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> coverage[a] != coverage[b] ? Integer.compare(coverage[a], coverage[b])
+                : sortedOutput ? codeOf(missionIds[a]).compareTo(codeOf(missionIds[b])) : Integer.compare(a, b));
+        for(int i : order)
+            System.out.println("  " + coverage[i] + "/" + members.size() + "  " + codeOf(missionIds[i]));
+
+        return uncovered;
+    }
+
+    /**
+     * Lists a set of modules for the report.
+     * @param modules - modules to list.
+     * @return the modules after a colon, or a full stop if there are none.
+     */
+    private String listOf(Profile modules)
+    {
+        if(modules.isEmpty())
+            return ".";
+
+        return ": " + String.join(", ", sortedOutput ? modules.getSortedModuleCodes() : modules.getModuleCodes());
+    }
+
+    private String codeOf(int id)
+    {
+        return mission.getDictionary().codeOf(id);
+    }
+
+    private void write(Profile modules, File target) throws IOException
+    {
+        ProfileCalculations.writeProfile(modules, target, sortedOutput);
+        if(profileSource != null)
+            profileSource.stored(target, modules);
+        if(verboseOutput)
+            System.out.println("Wrote " + target.getPath());
+    }
+
+    private static String baseName(File profile)
+    {
+        String name = profile.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps module codes to dense integer identifiers, so that profiles can be represented as bit vectors.
+ * Identifiers are handed out in the order codes are first seen and are never reused, meaning any two profiles
+ * built against the same dictionary can be combined directly.
+ *
+ * @author Daniel Burton
+ */
+public class ModuleDictionary
+{
+    private static final ModuleDictionary SHARED = new ModuleDictionary();
+
+    private final ConcurrentHashMap<String, Integer> idsByCode = new ConcurrentHashMap<String, Integer>();
+    private final ArrayList<String> codesById = new ArrayList<String>();
+
+    /**
+     * Obtains the dictionary shared by every profile created during this session.
+     * @return the session-wide ModuleDictionary.
+     */
+    public static ModuleDictionary getShared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Obtains the identifier for a module code, assigning a new one if the code has not been seen before.
+     * @param code - module code to look up.
+     * @return the dense identifier for the module code.
+     */
+    public int intern(String code)
+    {
+        Integer id = idsByCode.get(code);
+        if(id != null)
+            return id;
+
+        synchronized(codesById)
+        {//Only the assignment of new identifiers needs to be serialised, lookups of known codes are lock-free.
+            id = idsByCode.get(code);
+            if(id == null)
+            {
+                id = codesById.size();
+                codesById.add(code);
+                idsByCode.put(code, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Obtains the identifier for a module code without assigning a new one.
+     * @param code - module code to look up.
+     * @return the dense identifier for the module code, or -1 if it is not in the dictionary.
+     */
+    public int lookup(String code)
+    {
+        Integer id = idsByCode.get(code);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Obtains the module code for an identifier.
+     * @param id - identifier previously returned by this dictionary.
+     * @return the module code the identifier represents.
+     */
+    public String codeOf(int id)
+    {
+        synchronized(codesById)
+        {
+            return codesById.get(id);
+        }
+    }
+
+    /**
+     * Obtains the number of module codes known to this dictionary.
+     * @return the number of identifiers assigned so far.
+     */
+    public int size()
+    {
+        synchronized(codesById)
+        {
+            return codesById.size();
+        }
+    }
+}
@@ -0,0 +1,346 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads module lists by memory-mapping the file and tokenising it in a single pass over its bytes.
+ * Both list formats are understood:
+ * - One module per line.
+ * - Pools of modules in the style of the Challenge Bomb spreadsheets, such as [ModuleA, ModuleB] Count: 2.
+ *
+ * When reading module codes, each code is matched against the codes already seen in this list while it is still in
+ * the mapped bytes, so a String is only created the first time a code appears. Lists made up of many missions, where
+ * the same modules appear over and over, are therefore read without creating a String per line.
+ *
+ * @author Daniel Burton
+ */
+public class ModuleListReader implements Closeable
+{
+    private static final int WINDOW_SIZE = 1 << 28;
+    static final int MAPPING_THRESHOLD = 1 << 20; //Also used by ResultCache when hashing operands.
+
+    private final FileChannel channel;
+    private final ModuleDictionary dictionary;
+
+    private ByteBuffer window;
+    private byte[] decodeBytes = new byte[64];
+
+    private byte[][] seenCodes = new byte[256][];
+    private int[] seenHashes = new int[256];
+    private int[] seenIds = new int[256];
+    private int seenCount = 0;
+
+    /**
+     * Opens a module list for reading against the session's shared dictionary.
+     * @param moduleList - .txt file containing a correctly-formatted list of modules.
+     * @throws IOException - in the event that the file cannot be opened.
+     */
+    public ModuleListReader(File moduleList) throws IOException
+    {
+        this(moduleList, ModuleDictionary.getShared());
+    }
+
+    /**
+     * Opens a module list for reading against the given dictionary.
+     * @param moduleList - .txt file containing a correctly-formatted list of modules.
+     * @param dictionary - dictionary used to assign identifiers to the module codes read.
+     * @throws IOException - in the event that the file cannot be opened.
+     */
+    public ModuleListReader(File moduleList, ModuleDictionary dictionary) throws IOException
+    {
+        this.channel = FileChannel.open(moduleList.toPath(), StandardOpenOption.READ);
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Reads every module code in the list into a profile. The ALL_SOLVABLE and ALL_NEEDY entries which appear in
+     * mission lists are not modules, so they are left out.
+     * @return a Profile enabling every module code in the list.
+     * @throws IOException - in the event of a standard file-reading error.
+     * @throws ListFormatException - if a line opens a pool with [ but never closes it.
+     */
+    public Profile readProfile() throws IOException, ListFormatException
+    {
+        Profile profile = new Profile(dictionary);
+        scan(profile, null);
+        return profile;
+    }
+
+    /**
+     * Reads every entry in the list as text, such as when the list contains module names rather than codes.
+     * @return an ArrayList of the entries in the order they appear, including any repeats.
+     * @throws IOException - in the event of a standard file-reading error.
+     * @throws ListFormatException - if a line opens a pool with [ but never closes it.
+     */
+    public ArrayList<String> readEntries() throws IOException, ListFormatException
+    {
+        ArrayList<String> entries = new ArrayList<String>();
+        scan(null, entries);
+        return entries;
+    }
+
+    /**
+     * Closes the underlying file.
+     * @throws IOException - in the event of a standard I/O error.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Passes over the whole file one line at a time, mapping it in windows so that files of any size can be read.
+     * Exactly one of the two destinations is given.
+     * @param profile - Profile to add module codes to, or null.
+     * @param entries - list to add decoded entries to, or null.
+     */
+    private void scan(Profile profile, ArrayList<String> entries) throws IOException, ListFormatException
+    {
+        long started = Statistics.start();
+        long readNanos = 0;
+        long size = channel.size();
+        long windowStart = 0;
+        boolean firstWindow = true;
+
+        while(windowStart < size)
+        {
+            int length = (int) Math.min(WINDOW_SIZE, size - windowStart);
+            long windowStarted = System.nanoTime();
+            window = openWindow(windowStart, length);
+            readNanos += System.nanoTime() - windowStarted;
+            boolean lastWindow = windowStart + length == size;
+
+            int lineStart = 0;
+            if(firstWindow && length >= 3 && (window.get(0) & 0xFF) == 0xEF && (window.get(1) & 0xFF) == 0xBB && (window.get(2) & 0xFF) == 0xBF)
+                lineStart = 3; //Skips a UTF-8 byte order mark, as written by some text editors.
+            firstWindow = false;
+
+            int position = lineStart;
+            while(true)
+            {
+                while(position < length && window.get(position) != '\n' && window.get(position) != '\r')
+                    position++;
+
+                if(position == length && !lastWindow)
+                    break; //The line continues past this window, so it is read again from the start of the next.
+
+                readLine(lineStart, position, profile, entries);
+
+                if(position == length)
+                    break;
+                if(window.get(position) == '\r' && position + 1 < length && window.get(position + 1) == '\n')
+                    position++;
+                lineStart = ++position;
+            }
+
+            if(lastWindow)
+                break;
+            if(lineStart == 0)
+                throw new ListFormatException("Badly formatted module list file! A line is too long to be a module list.");
+            windowStart += lineStart;
+        }
+
+        Statistics.record(Statistics.Phase.READ, readNanos, size); //Mapped windows are only paged in as they are parsed.
+        Statistics.record(Statistics.Phase.PARSE, System.nanoTime() - started - readNanos, 0);
+    }
+
+    /**
+     * Obtains part of the file as a buffer. Small lists are simply read into memory, since a mapped file stays
+     * locked on some systems until the mapping is garbage collected, and mapping only pays off for larger lists.
+     * @param start - position in the file of the first byte of the window.
+     * @param length - number of bytes in the window.
+     * @return a buffer holding the window's bytes.
+     */
+    private ByteBuffer openWindow(long start, int length) throws IOException
+    {
+        if(length > MAPPING_THRESHOLD)
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, start + buffer.position()) < 0)
+                throw new IOException("The module list changed while it was being read.");
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Reads the entries from a single line of the list.
+     * @param start - position of the first byte of the line in the current window.
+     * @param end - position just after the last byte of the line.
+     */
+    private void readLine(int start, int end, Profile profile, ArrayList<String> entries) throws ListFormatException
+    {
+        boolean relevant = false;
+        for(int i = start; i < end && !relevant; i++)
+        {//Lines without any letters, digits or similar are blank lines or separators.
+            int b = window.get(i);
+            relevant = b >= 48 && b <= 122;
+        }
+        if(!relevant)
+            return;
+
+        if(window.get(start) != '[')
+        {//It is not checked if the module code is a legitimate module, as the mod selector manages this already.
+            readEntry(start, end, profile, entries);
+            return;
+        }
+
+        int close = start + 1;
+        while(close < end && window.get(close) != ']')
+            close++;
+        if(close == end)
+            throw new ListFormatException("Badly formatted module list file!"); //A line with a [ but no ] is formatted badly.
+
+        int entryStart = start + 1;
+        for(int i = entryStart; i < close; i++)
+        {//Modules within a pool are separated by a comma and a space.
+            if(window.get(i) == ',' && i + 1 < close && window.get(i + 1) == ' ')
+            {
+                readEntry(entryStart, i, profile, entries);
+                entryStart = i + 2;
+                i++;
+            }
+        }
+        readEntry(entryStart, close, profile, entries);
+    }
+
+    /**
+     * Passes a single entry on to whichever destination is being filled.
+     * @param start - position of the first byte of the entry in the current window.
+     * @param end - position just after the last byte of the entry.
+     */
+    private void readEntry(int start, int end, Profile profile, ArrayList<String> entries)
+    {
+        if(start == end)
+            return;
+
+        if(entries != null)
+            entries.add(decode(start, end));
+        else
+        {
+            int id = internCode(start, end);
+            if(id >= 0)
+                profile.addId(id);
+        }
+    }
+
+    /**
+     * Obtains the dictionary identifier of a module code held in the current window, decoding it into a String only
+     * if it has not been seen before in this list.
+     * @param start - position of the first byte of the code in the current window.
+     * @param end - position just after the last byte of the code.
+     * @return the identifier of the module code, or -1 if the entry is not a module.
+     */
+    private int internCode(int start, int end)
+    {
+        int hash = 0;
+        for(int i = start; i < end; i++)
+            hash = 31 * hash + window.get(i);
+
+        int mask = seenCodes.length - 1;
+        int slot = mix(hash) & mask;
+        while(seenCodes[slot] != null)
+        {
+            if(seenHashes[slot] == hash && matches(seenCodes[slot], start, end))
+                return seenIds[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        String code = decode(start, end);
+        int id = code.equals("ALL_SOLVABLE") || code.equals("ALL_NEEDY") ? -1 : dictionary.intern(code);
+
+        byte[] bytes = new byte[end - start];
+        System.arraycopy(decodeBytes, 0, bytes, 0, bytes.length);
+        seenCodes[slot] = bytes;
+        seenHashes[slot] = hash;
+        seenIds[slot] = id;
+        if(++seenCount * 2 > seenCodes.length)
+            growSeen();
+
+        return id;
+    }
+
+    /**
+     * Establishes if the bytes of a previously seen code match those in the current window.
+     * @param code - bytes of the previously seen code.
+     * @param start - position of the first byte to compare in the current window.
+     * @param end - position just after the last byte to compare.
+     * @return true if the bytes are identical.
+     */
+    private boolean matches(byte[] code, int start, int end)
+    {
+        if(code.length != end - start)
+            return false;
+        for(int i = 0; i < code.length; i++)
+        {
+            if(code[i] != window.get(start + i))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Doubles the size of the table of codes seen so far, keeping it at most half full.
+     */
+    private void growSeen()
+    {
+        byte[][] oldCodes = seenCodes;
+        int[] oldHashes = seenHashes;
+        int[] oldIds = seenIds;
+        seenCodes = new byte[oldCodes.length * 2][];
+        seenHashes = new int[oldCodes.length * 2];
+        seenIds = new int[oldCodes.length * 2];
+
+        int mask = seenCodes.length - 1;
+        for(int i = 0; i < oldCodes.length; i++)
+        {
+            if(oldCodes[i] == null)
+                continue;
+            int slot = mix(oldHashes[i]) & mask;
+            while(seenCodes[slot] != null)
+                slot = (slot + 1) & mask;
+            seenCodes[slot] = oldCodes[i];
+            seenHashes[slot] = oldHashes[i];
+            seenIds[slot] = oldIds[i];
+        }
+    }
+
+    /**
+     * Spreads the bits of a hash so that codes differing only in their last characters land in different slots.
+     * @param hash - hash of a module code's bytes.
+     * @return the mixed hash.
+     */
+    private static int mix(int hash)
+    {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Decodes part of the current window as UTF-8, leaving a copy of its bytes at the start of decodeBytes.
+     * @param start - position of the first byte in the current window.
+     * @param end - position just after the last byte.
+     * @return the decoded String.
+     */
+    private String decode(int start, int end)
+    {
+        int length = end - start;
+        if(length > decodeBytes.length)
+            decodeBytes = new byte[Math.max(length, decodeBytes.length * 2)];
+        for(int i = 0; i < length; i++)
+            decodeBytes[i] = window.get(start + i);
+
+        return new String(decodeBytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
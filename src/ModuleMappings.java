@@ -0,0 +1,344 @@
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the mapping between module codes and module names, as published by the KTANE manual repository.
+ *
+ * The repository's JSON is several megabytes, so once downloaded the mapping is kept in a small local cache file
+ * and reused until it is older than the configured time to live. The following settings may be given in
+ * kpc.properties:
+ * - mappings.source: URL or local path of the repository JSON (defaults to the manual repository itself).
+ * - mappings.ttlHours: hours before the cache is refreshed (defaults to 24; a negative value never refreshes).
+ * - mappings.cacheFile: location of the cache file (defaults to modulemappings.txt).
+ *
+ * A profile with no enabled list enables every module in the repository, so profiles kept in memory may depend on
+ * the mappings. Each time the repository's modules change, whether by !r or by the cache being refreshed, the
+ * generation of the mappings is raised, and anything kept from an earlier generation is read again.
+ *
+ * @author Daniel Burton
+ */
+public class ModuleMappings
+{
+    public static final String DEFAULT_SOURCE = "https://ktane.timwi.de/json/raw";
+    private static final String CACHE_HEADER = "KTANEProfileCalculator module mappings v1";
+
+    private static final AtomicLong GENERATION = new AtomicLong();
+    private static ModuleMappings loaded = null;
+
+    private final ArrayList<String> moduleIds;
+    private final ArrayList<String> names;
+    private final long loadedAt;
+    private ModuleNameIndex nameIndex = null;
+    private Profile universe = null;
+
+    private ModuleMappings(ArrayList<String> moduleIds, ArrayList<String> names)
+    {
+        this.moduleIds = moduleIds;
+        this.names = names;
+        this.loadedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Obtains the module mappings, using the local cache if it is still fresh and refreshing it otherwise.
+     * If the source cannot be reached, an out-of-date cache is used rather than failing.
+     * @param verboseOutput - more process details are shown to the user if true.
+     * @return the current ModuleMappings.
+     * @throws IOException - in the event that no cache exists and the source cannot be read.
+     * @throws ParseException - in the event that no cache exists and the source JSON is improperly formatted.
+     */
+    public static synchronized ModuleMappings obtain(boolean verboseOutput) throws IOException, ParseException
+    {
+        if(loaded != null && !isExpired(loaded.loadedAt))
+            return loaded;
+
+        File cacheFile = getCacheFile();
+        if(cacheFile.isFile() && !isExpired(cacheFile.lastModified()))
+        {
+            ModuleMappings cached = readCache(cacheFile);
+            if(cached != null)
+            {
+                if(verboseOutput)
+                    System.out.println("Using cached module mappings from " + cacheFile.getPath());
+                setLoaded(cached);
+                return loaded;
+            }
+        }
+
+        try
+        {
+            return refresh(Settings.getString("mappings.source", DEFAULT_SOURCE), verboseOutput);
+        }
+        catch(IOException | ParseException e)
+        {
+            ModuleMappings stale = cacheFile.isFile() ? readCache(cacheFile) : null;
+            if(stale == null)
+                throw e;
+
+            System.out.println("Unable to refresh module mappings, using the out-of-date copy in " + cacheFile.getPath());
+            setLoaded(stale);
+            return loaded;
+        }
+    }
+
+    /**
+     * Obtains the generation of the mappings, which is raised whenever the repository's modules change. Unlike
+     * obtain, this never waits for the mappings to be loaded.
+     * @return the current generation.
+     */
+    public static long getGeneration()
+    {
+        return GENERATION.get();
+    }
+
+    /**
+     * Replaces the loaded mappings, raising the generation if the modules they list have changed.
+     * @param mappings - the newly loaded mappings.
+     */
+    private static void setLoaded(ModuleMappings mappings)
+    {
+        if(loaded != null && !loaded.moduleIds.equals(mappings.moduleIds))
+            GENERATION.incrementAndGet();
+        loaded = mappings;
+    }
+
+    /**
+     * Reads the module mappings from a source and stores them in the local cache, regardless of the cache's age.
+     * @param source - URL or local path of the repository JSON.
+     * @param verboseOutput - more process details are shown to the user if true.
+     * @return the refreshed ModuleMappings.
+     * @throws IOException - in the event of a standard input error.
+     * @throws ParseException - in the event that the source JSON is improperly formatted.
+     */
+    public static synchronized ModuleMappings refresh(String source, boolean verboseOutput) throws IOException, ParseException
+    {
+        if(verboseOutput)
+            System.out.println("Obtaining module mappings from " + source);
+
+        JSONArray modules;
+        try(Reader in = new BufferedReader(new InputStreamReader(openSource(source), StandardCharsets.UTF_8)))
+        {
+            JSONObject repository = (JSONObject) new JSONParser().parse(in);
+            modules = (JSONArray) repository.get("KtaneModules");
+        }
+
+        if(modules == null)
+            throw new IOException("The module mappings source does not contain a KtaneModules list.");
+
+        ArrayList<String> moduleIds = new ArrayList<String>();
+        ArrayList<String> names = new ArrayList<String>();
+        for(Object o : modules)
+        {
+            Object code = ((JSONObject) o).get("ModuleID");
+            Object name = ((JSONObject) o).get("Name");
+            if(code instanceof String && name instanceof String)
+            {
+                moduleIds.add(sanitise((String) code));
+                names.add(sanitise((String) name));
+            }
+        }
+
+        setLoaded(new ModuleMappings(moduleIds, names));
+        writeCache(getCacheFile(), source);
+
+        if(verboseOutput)
+            System.out.println("Cached mappings for " + moduleIds.size() + " modules in " + getCacheFile().getPath());
+
+        return loaded;
+    }
+
+    /**
+     * Obtains the number of modules with known mappings.
+     * @return the number of modules.
+     */
+    public int size()
+    {
+        return moduleIds.size();
+    }
+
+    /**
+     * Obtains the module code of a module.
+     * @param index - position of the module in the mappings, from 0 to size() - 1.
+     * @return the module's code.
+     */
+    public String getModuleId(int index)
+    {
+        return moduleIds.get(index);
+    }
+
+    /**
+     * Obtains the official name of a module.
+     * @param index - position of the module in the mappings, from 0 to size() - 1.
+     * @return the module's name.
+     */
+    public String getName(int index)
+    {
+        return names.get(index);
+    }
+
+    /**
+     * Obtains a hashed index for resolving module names to codes, building it the first time it is needed.
+     * @return the ModuleNameIndex for these mappings.
+     */
+    public synchronized ModuleNameIndex getNameIndex()
+    {
+        if(nameIndex == null)
+            nameIndex = new ModuleNameIndex(this);
+
+        return nameIndex;
+    }
+
+    /**
+     * Obtains every module in the repository as a profile, building it the first time it is needed for the session's
+     * dictionary.
+     * @param dictionary - dictionary the profile should use.
+     * @return a Profile enabling every module with a known mapping, which must not be modified.
+     */
+    public synchronized Profile getUniverse(ModuleDictionary dictionary)
+    {
+        if(universe != null && universe.getDictionary() == dictionary)
+            return universe;
+
+        Profile modules = new Profile(dictionary);
+        for(String code : moduleIds)
+            modules.add(code);
+
+        if(dictionary == ModuleDictionary.getShared())
+            universe = modules;
+        return modules;
+    }
+
+    /**
+     * Opens a mappings source, which may either be a URL or a path to a local copy of the repository JSON.
+     * @param source - URL or local path.
+     * @return an InputStream of the source's contents.
+     */
+    private static InputStream openSource(String source) throws IOException
+    {
+        if(source.startsWith("http://") || source.startsWith("https://"))
+            return new URL(source).openStream();
+
+        return new FileInputStream(source);
+    }
+
+    /**
+     * Establishes whether mappings obtained at a given time should now be refreshed.
+     * @param timestamp - time the mappings were obtained, in milliseconds since the epoch.
+     * @return true if the mappings are older than the configured time to live.
+     */
+    private static boolean isExpired(long timestamp)
+    {
+        long ttlHours = Settings.getLong("mappings.ttlHours", 24);
+        return ttlHours >= 0 && System.currentTimeMillis() - timestamp > ttlHours * 60 * 60 * 1000;
+    }
+
+    static File getCacheFile()
+    {
+        return new File(Settings.getString("mappings.cacheFile", "modulemappings.txt"));
+    }
+
+    /**
+     * Reads the local cache file.
+     * @param cacheFile - location of the cache.
+     * @return the cached ModuleMappings, or null if the cache is unreadable or not a mappings cache.
+     */
+    private static ModuleMappings readCache(File cacheFile)
+    {
+        ArrayList<String> moduleIds = new ArrayList<String>();
+        ArrayList<String> names = new ArrayList<String>();
+
+        try(BufferedReader in = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8))
+        {
+            if(!CACHE_HEADER.equals(in.readLine()) || in.readLine() == null)
+                return null; //The second line records the source, which is only informational.
+
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                int separator = line.indexOf('\t');
+                if(separator < 0)
+                    return null;
+                moduleIds.add(line.substring(0, separator));
+                names.add(line.substring(separator + 1));
+            }
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+
+        return new ModuleMappings(moduleIds, names);
+    }
+
+    /**
+     * Writes the currently loaded mappings to the local cache, replacing any previous cache in one step.
+     * @param cacheFile - location of the cache.
+     * @param source - where the mappings were obtained from.
+     */
+    private static void writeCache(File cacheFile, String source) throws IOException
+    {
+        Path target = cacheFile.getAbsoluteFile().toPath();
+        Path temporary = ProfileWriter.temporaryFor(target); //Never shared with another process's write.
+
+        try
+        {
+            try(BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+            {
+                out.write(CACHE_HEADER);
+                out.newLine();
+                out.write(source);
+                out.newLine();
+                for(int i = 0; i < loaded.size(); i++)
+                {
+                    out.write(loaded.getModuleId(i));
+                    out.write('\t');
+                    out.write(loaded.getName(i));
+                    out.newLine();
+                }
+            }
+
+            try
+            {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch(AtomicMoveNotSupportedException e)
+            {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Removes characters which would corrupt the line-based cache format.
+     * @param text - module code or name.
+     * @return the text with any tabs or line breaks replaced by spaces.
+     */
+    private static String sanitise(String text)
+    {
+        return text.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+}
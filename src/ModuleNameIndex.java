@@ -0,0 +1,306 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Hashed lookup from module names to module codes, built once each time the module mappings are loaded.
+ *
+ * Names are matched at increasing levels of leniency, so that an exact match always wins over a looser one:
+ * - the module's code itself, allowing lists to mix codes and names;
+ * - the name ignoring case and any leading "The";
+ * - the name ignoring case, punctuation, whitespace and any leading "The";
+ * - the module's code ignoring case.
+ *
+ * Names matching none of these, such as those with small typos, may be looked up with findSimilar, which returns the
+ * modules whose normalised names are within a few edits of the normalised name. Similar names are found using a
+ * BK-tree, built the first time it is needed, which compares a name with only a small part of the repository rather
+ * than with every module.
+ *
+ * @author Daniel Burton
+ */
+public class ModuleNameIndex
+{
+    static final long DEFAULT_MAX_DISTANCE = 2;
+    private static final int CHARACTERS_PER_EDIT = 3;
+
+    private final HashMap<String, String> codesByCode = new HashMap<String, String>();
+    private final HashMap<String, String> codesByName = new HashMap<String, String>();
+    private final HashMap<String, String> codesByNormalisedName = new HashMap<String, String>();
+    private final HashMap<String, String> codesByLowerCaseCode = new HashMap<String, String>();
+    private final HashMap<String, String> namesByCode = new HashMap<String, String>();
+    private NameTree nameTree = null;
+
+    /**
+     * Builds an index over every module in a set of mappings. Where two modules share a key, the one listed first
+     * by the manual repository is kept.
+     * @param mappings - module mappings to index.
+     */
+    public ModuleNameIndex(ModuleMappings mappings)
+    {
+        for(int i = 0; i < mappings.size(); i++)
+        {
+            String code = mappings.getModuleId(i);
+            String name = mappings.getName(i);
+
+            codesByCode.putIfAbsent(code, code);
+            codesByName.putIfAbsent(stripArticle(name.toLowerCase(Locale.ROOT)), code);
+            codesByNormalisedName.putIfAbsent(normalise(name), code);
+            codesByLowerCaseCode.putIfAbsent(code.toLowerCase(Locale.ROOT), code);
+            namesByCode.putIfAbsent(code, name);
+        }
+    }
+
+    /**
+     * Finds the module code for a module name or code.
+     * @param name - module name or code as written in a list.
+     * @return the matching module code, or null if no module matches.
+     */
+    public String resolve(String name)
+    {
+        String trimmed = name.trim();
+
+        String code = codesByCode.get(trimmed);
+        if(code == null)
+            code = codesByName.get(stripArticle(trimmed.toLowerCase(Locale.ROOT)));
+        if(code == null)
+            code = codesByNormalisedName.get(normalise(trimmed));
+        if(code == null)
+            code = codesByLowerCaseCode.get(trimmed.toLowerCase(Locale.ROOT));
+
+        return code;
+    }
+
+    /**
+     * Finds the modules whose names are similar to a name which has no match, ranked from most to least similar.
+     * Names are compared once normalised, by the number of single-character insertions, deletions and substitutions
+     * needed to turn one into the other. Shorter names are allowed fewer edits, so that a short name is not matched
+     * to an unrelated module, and names of fewer than three characters are never matched.
+     * @param name - module name as written in a list.
+     * @param maxDistance - the most edits a similar name may be from the name.
+     * @return an ArrayList of similar modules, closest first, which is empty if there are none.
+     */
+    public ArrayList<Candidate> findSimilar(String name, int maxDistance)
+    {
+        String key = normalise(name);
+        int limit = Math.min(maxDistance, key.length() / CHARACTERS_PER_EDIT);
+        ArrayList<Candidate> candidates = new ArrayList<Candidate>();
+        if(limit <= 0)
+            return candidates;
+
+        getNameTree().search(key, limit, candidates);
+        candidates.sort((a, b) -> a.distance != b.distance ? Integer.compare(a.distance, b.distance) : a.name.compareTo(b.name));
+        return candidates;
+    }
+
+    /**
+     * Establishes whether similar modules identify a single module clearly enough to be used in place of the name.
+     * @param candidates - similar modules, closest first, as returned by findSimilar.
+     * @return the code of the closest module if it is closer than every other, or null otherwise.
+     */
+    public static String unambiguous(List<Candidate> candidates)
+    {
+        if(candidates.isEmpty() || (candidates.size() > 1 && candidates.get(1).distance == candidates.get(0).distance))
+            return null;
+
+        return candidates.get(0).code;
+    }
+
+    /**
+     * Obtains the tree of normalised names, building it the first time it is needed.
+     * @return the NameTree for this index.
+     */
+    private synchronized NameTree getNameTree()
+    {
+        if(nameTree == null)
+        {
+            nameTree = new NameTree();
+            for(HashMap.Entry<String, String> entry : codesByNormalisedName.entrySet())
+            {
+                if(!entry.getKey().isEmpty())
+                    nameTree.add(entry.getKey(), entry.getValue(), namesByCode.get(entry.getValue()));
+            }
+        }
+
+        return nameTree;
+    }
+
+    /**
+     * Calculates the number of single-character insertions, deletions and substitutions needed to turn one string
+     * into another.
+     * @param a - the first string.
+     * @param b - the second string.
+     * @return the edit distance between the strings.
+     */
+    static int distance(String a, String b)
+    {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for(int j = 0; j <= b.length(); j++)
+            previous[j] = j;
+
+        for(int i = 1; i <= a.length(); i++)
+        {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for(int j = 1; j <= b.length(); j++)
+            {
+                int substitution = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        return previous[b.length()];
+    }
+
+    /**
+     * Reduces a module name to a form which ignores case, punctuation, whitespace and any leading "The".
+     * Curly apostrophes and quotes are removed along with all other punctuation.
+     * @param name - module name to normalise.
+     * @return the normalised name.
+     */
+    public static String normalise(String name)
+    {
+        String lower = stripArticle(name.trim().toLowerCase(Locale.ROOT));
+        StringBuilder normalised = new StringBuilder(lower.length());
+
+        for(int i = 0; i < lower.length(); i++)
+        {
+            char c = lower.charAt(i);
+            if(Character.isLetterOrDigit(c))
+                normalised.append(c);
+        }
+
+        return normalised.toString();
+    }
+
+    /**
+     * Removes a leading "the " from a lower-case name.
+     * @param lowerCaseName - name which has already been converted to lower case.
+     * @return the name without its article.
+     */
+    private static String stripArticle(String lowerCaseName)
+    {
+        return lowerCaseName.startsWith("the ") ? lowerCaseName.substring(4) : lowerCaseName;
+    }
+
+    /**
+     * A module whose name is similar to a name being looked up.
+     */
+    public static final class Candidate
+    {
+        private final String code;
+        private final String name;
+        private final int distance;
+
+        private Candidate(String code, String name, int distance)
+        {
+            this.code = code;
+            this.name = name;
+            this.distance = distance;
+        }
+
+        /**
+         * Obtains the module's code.
+         * @return the module code.
+         */
+        public String getCode()
+        {
+            return code;
+        }
+
+        /**
+         * Obtains the module's official name.
+         * @return the module name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Obtains the number of edits between the normalised names.
+         * @return the edit distance.
+         */
+        public int getDistance()
+        {
+            return distance;
+        }
+    }
+
+    /**
+     * A BK-tree of normalised names. Each child of a node is kept under its edit distance from the node, so by the
+     * triangle inequality, a search only needs to visit the children whose distance is within the limit of the
+     * searched name's own distance from the node.
+     */
+    private static final class NameTree
+    {
+        private Node root = null;
+
+        private void add(String key, String code, String name)
+        {
+            Node node = new Node(key, code, name);
+            if(root == null)
+            {
+                root = node;
+                return;
+            }
+
+            Node parent = root;
+            while(true)
+            {
+                int distance = distance(key, parent.key);
+                Node child = parent.children.get(distance);
+                if(child == null)
+                {
+                    parent.children.put(distance, node);
+                    return;
+                }
+                parent = child;
+            }
+        }
+
+        private void search(String key, int limit, ArrayList<Candidate> found)
+        {
+            if(root == null)
+                return;
+
+            ArrayDeque<Node> pending = new ArrayDeque<Node>();
+            pending.push(root);
+            while(!pending.isEmpty())
+            {
+                Node node = pending.pop();
+                int distance = distance(key, node.key);
+                if(distance <= limit)
+                    found.add(new Candidate(node.code, node.name, distance));
+
+                for(int edge = Math.max(1, distance - limit); edge <= distance + limit; edge++)
+                {
+                    Node child = node.children.get(edge);
+                    if(child != null)
+                        pending.push(child);
+                }
+            }
+        }
+    }
+
+    private static final class Node
+    {
+        private final String key;
+        private final String code;
+        private final String name;
+        private final HashMap<Integer, Node> children = new HashMap<Integer, Node>();
+
+        private Node(String key, String code, String name)
+        {
+            this.key = key;
+            this.code = code;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * In-memory representation of the modules enabled by a profile.
+ * Membership is held as a bit vector indexed by a ModuleDictionary, so set operations between two profiles are
+ * completed a machine word at a time rather than by comparing module codes.
+ *
+ * @author Daniel Burton
+ */
+public class Profile
+{
+    private final ModuleDictionary dictionary;
+    private final BitSet modules;
+
+    /**
+     * Creates an empty profile using the session's shared dictionary.
+     */
+    public Profile()
+    {
+        this(ModuleDictionary.getShared());
+    }
+
+    /**
+     * Creates an empty profile using the given dictionary.
+     * @param dictionary - dictionary used to assign identifiers to module codes.
+     */
+    public Profile(ModuleDictionary dictionary)
+    {
+        this(dictionary, new BitSet());
+    }
+
+    private Profile(ModuleDictionary dictionary, BitSet modules)
+    {
+        this.dictionary = dictionary;
+        this.modules = modules;
+    }
+
+    /**
+     * Creates a profile from a collection of module codes using the session's shared dictionary.
+     * @param codes - module codes to be enabled in the profile.
+     * @return a Profile enabling every code in the collection.
+     */
+    public static Profile fromCodes(Collection<String> codes)
+    {
+        Profile profile = new Profile();
+        for(String code : codes)
+            profile.add(code);
+
+        return profile;
+    }
+
+    /**
+     * Obtains the dictionary this profile's identifiers belong to.
+     * @return the profile's ModuleDictionary.
+     */
+    public ModuleDictionary getDictionary()
+    {
+        return dictionary;
+    }
+
+    /**
+     * Enables a module in this profile.
+     * @param code - module code to enable.
+     */
+    public void add(String code)
+    {
+        modules.set(dictionary.intern(code));
+    }
+
+    /**
+     * Enables a module in this profile by its identifier in the profile's dictionary.
+     * @param id - identifier of the module to enable.
+     */
+    public void addId(int id)
+    {
+        modules.set(id);
+    }
+
+    /**
+     * Disables a module in this profile by its identifier in the profile's dictionary.
+     * @param id - identifier of the module to disable.
+     */
+    public void removeId(int id)
+    {
+        modules.clear(id);
+    }
+
+    /**
+     * Establishes whether a module is enabled in this profile.
+     * @param code - module code to check.
+     * @return true if the module is enabled.
+     */
+    public boolean contains(String code)
+    {
+        int id = dictionary.lookup(code);
+        return id >= 0 && modules.get(id);
+    }
+
+    /**
+     * Establishes whether a module is enabled in this profile by its identifier in the profile's dictionary.
+     * @param id - identifier of the module to check.
+     * @return true if the module is enabled.
+     */
+    public boolean containsId(int id)
+    {
+        return modules.get(id);
+    }
+
+    /**
+     * Obtains the number of modules enabled in this profile.
+     * @return the count of enabled modules.
+     */
+    public int size()
+    {
+        return modules.cardinality();
+    }
+
+    /**
+     * Establishes whether this profile enables no modules at all.
+     * @return true if no modules are enabled.
+     */
+    public boolean isEmpty()
+    {
+        return modules.isEmpty();
+    }
+
+    /**
+     * Estimates the number of bytes of memory this profile occupies.
+     * @return the approximate size of the profile in bytes.
+     */
+    public long estimateMemory()
+    {
+        return 64 + modules.size() / 8;
+    }
+
+    /**
+     * Finds the next enabled module at or after a given identifier, in the manner of BitSet.nextSetBit.
+     * @param fromId - identifier to start searching from.
+     * @return the identifier of the next enabled module, or -1 if there are none.
+     */
+    public int nextModule(int fromId)
+    {
+        return modules.nextSetBit(fromId);
+    }
+
+    /**
+     * Creates an independent copy of this profile, which may then be modified without affecting the original.
+     * @return a new Profile enabling exactly the same modules.
+     */
+    public Profile copy()
+    {
+        return new Profile(dictionary, (BitSet) modules.clone());
+    }
+
+    /**
+     * Enables every module of another profile in this profile, modifying it in place.
+     * @param other - profile whose modules should be added.
+     */
+    public void addAll(Profile other)
+    {
+        checkCompatible(other);
+        modules.or(other.modules);
+    }
+
+    /**
+     * Disables every module in this profile which is not enabled in another profile, modifying it in place.
+     * @param other - profile whose modules should be retained.
+     */
+    public void retainAll(Profile other)
+    {
+        checkCompatible(other);
+        modules.and(other.modules);
+    }
+
+    /**
+     * Disables every module of another profile in this profile, modifying it in place.
+     * @param other - profile whose modules should be removed.
+     */
+    public void removeAll(Profile other)
+    {
+        checkCompatible(other);
+        modules.andNot(other.modules);
+    }
+
+    /**
+     * Counts the modules enabled in both this profile and another, without building their intersection.
+     * @param other - profile to compare with this one.
+     * @return the number of modules the two profiles have in common.
+     */
+    public int countCommon(Profile other)
+    {
+        checkCompatible(other);
+        if(!modules.intersects(other.modules))
+            return 0;
+
+        BitSet common = (BitSet) modules.clone();
+        common.and(other.modules);
+        return common.cardinality();
+    }
+
+    /**
+     * Computes the union of this profile and another.
+     * @param other - profile to combine with this one.
+     * @return a new Profile enabling every module enabled in at least one of the two profiles.
+     */
+    public Profile union(Profile other)
+    {
+        Profile result = copy();
+        result.addAll(other);
+        return result;
+    }
+
+    /**
+     * Computes the intersection of this profile and another.
+     * @param other - profile to combine with this one.
+     * @return a new Profile enabling every module enabled in both profiles.
+     */
+    public Profile intersection(Profile other)
+    {
+        Profile result = copy();
+        result.retainAll(other);
+        return result;
+    }
+
+    /**
+     * Computes the set difference of this profile minus another.
+     * @param other - profile whose modules are being removed.
+     * @return a new Profile enabling every module in this profile BUT NOT the other.
+     */
+    public Profile difference(Profile other)
+    {
+        Profile result = copy();
+        result.removeAll(other);
+        return result;
+    }
+
+    /**
+     * Computes the complement of this profile against every module known to its dictionary.
+     * @return a new Profile enabling every known module which is not enabled in this profile.
+     */
+    public Profile complement()
+    {
+        BitSet result = (BitSet) modules.clone();
+        result.flip(0, dictionary.size());
+        return new Profile(dictionary, result);
+    }
+
+    /**
+     * Lists the module codes enabled in this profile, in the order their identifiers were assigned.
+     * @return an ArrayList of enabled module codes.
+     */
+    public ArrayList<String> getModuleCodes()
+    {
+        ArrayList<String> codes = new ArrayList<String>(modules.cardinality());
+        for(int id = modules.nextSetBit(0); id >= 0; id = modules.nextSetBit(id + 1))
+            codes.add(dictionary.codeOf(id));
+
+        return codes;
+    }
+
+    /**
+     * Lists the module codes enabled in this profile in sorted order, which does not depend on the order in which
+     * the dictionary happened to assign identifiers.
+     * @return an ArrayList of enabled module codes, sorted alphabetically.
+     */
+    public ArrayList<String> getSortedModuleCodes()
+    {
+        ArrayList<String> codes = getModuleCodes();
+        Collections.sort(codes);
+        return codes;
+    }
+
+    /**
+     * Checks that another profile may be combined with this one.
+     * @param other - the second operand of an operation.
+     * @throws IllegalArgumentException - if the two profiles use different dictionaries.
+     */
+    private void checkCompatible(Profile other)
+    {
+        if(other.dictionary != dictionary)
+            throw new IllegalArgumentException("Profiles built against different module dictionaries cannot be combined.");
+    }
+}
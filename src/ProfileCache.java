@@ -0,0 +1,139 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps profiles parsed during a session in memory, so that a profile used by several commands is only read once.
+ *
+ * Entries are keyed by the profile's canonical path and remember the file's size and modification time, so a profile
+ * which has changed on disk since it was cached is read again. Profiles cached before the repository's modules changed
+ * (see ModuleMappings.getGeneration) are also read again. Profiles written by the calculator are added as they
+ * are written. The least recently used profiles are discarded once the cache exceeds its memory budget, which may be
+ * set in megabytes with the cache.memoryMegabytes setting in kpc.properties (defaults to 64).
+ *
+ * @author Daniel Burton
+ */
+public class ProfileCache implements ProfileSource
+{
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final long memoryBudget;
+    private long memoryUsed = 0;
+
+    /**
+     * Creates an empty cache with the memory budget given in the settings.
+     */
+    public ProfileCache()
+    {
+        this(Settings.getLong("cache.memoryMegabytes", 64) * 1024 * 1024);
+    }
+
+    /**
+     * Creates an empty cache with the given memory budget.
+     * @param memoryBudget - approximate number of bytes the cached profiles may occupy.
+     */
+    public ProfileCache(long memoryBudget)
+    {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Obtains a profile from the cache if it is unchanged on disk, reading and caching it otherwise.
+     * @param profile - a JSON profile file.
+     * @return a Profile containing the profile's enabled modules.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that the profile cannot be parsed.
+     */
+    @Override
+    public Profile read(File profile) throws IOException, ParseException
+    {
+        String key = profile.getCanonicalPath();
+        BasicFileAttributes attributes = Files.readAttributes(profile.toPath(), BasicFileAttributes.class);
+
+        synchronized(this)
+        {
+            Entry entry = entries.get(key);
+            if(entry != null && entry.matches(attributes))
+                return entry.profile;
+        }
+
+        long generation = ModuleMappings.getGeneration(); //Taken first, so mappings changing during the read are noticed.
+        Profile contents = ProfileCalculations.readProfileFile(profile); //Read outside the lock so parallel reads are not serialised.
+        put(key, attributes, generation, contents);
+        return contents;
+    }
+
+    /**
+     * Adds a profile which has just been written to disk, so that it need not be read back by a later command.
+     * @param profile - location the profile was written to.
+     * @param contents - the enabled modules which were written.
+     * @throws IOException - in the event that the written file cannot be examined.
+     */
+    @Override
+    public void stored(File profile, Profile contents) throws IOException
+    {
+        put(profile.getCanonicalPath(), Files.readAttributes(profile.toPath(), BasicFileAttributes.class), ModuleMappings.getGeneration(), contents);
+    }
+
+    /**
+     * Removes every profile from the cache.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        memoryUsed = 0;
+    }
+
+    /**
+     * Adds or replaces an entry, then discards the least recently used entries until the cache is within budget.
+     * The entry just added is never discarded, even if it alone exceeds the budget.
+     */
+    private synchronized void put(String key, BasicFileAttributes attributes, long generation, Profile contents)
+    {
+        Entry previous = entries.put(key, new Entry(attributes, generation, contents));
+        if(previous != null)
+            memoryUsed -= previous.profile.estimateMemory();
+        memoryUsed += contents.estimateMemory();
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while(memoryUsed > memoryBudget && entries.size() > 1 && iterator.hasNext())
+        {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if(eldest.getKey().equals(key))
+                continue;
+            memoryUsed -= eldest.getValue().profile.estimateMemory();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A cached profile along with the size and modification time of the file it was read from, and the generation of
+     * the module mappings it was read under.
+     */
+    private static final class Entry
+    {
+        private final long size;
+        private final long lastModified;
+        private final long generation;
+        private final Profile profile;
+
+        private Entry(BasicFileAttributes attributes, long generation, Profile profile)
+        {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.generation = generation;
+            this.profile = profile;
+        }
+
+        private boolean matches(BasicFileAttributes attributes)
+        {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis()
+                    && generation == ModuleMappings.getGeneration();
+        }
+    }
+}
@@ -1,15 +1,12 @@
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Holds processes relating to various set operations the calculator is capable of.
@@ -21,6 +18,16 @@ public class ProfileCalculations
     ArrayList<File> operands = null;
     File targetFile = null;
     boolean verboseOutput = false;
+    boolean parallel = false;
+    boolean sortedOutput = false;
+    String expression = null;
+    ProfileSource profileSource = null;
+    File directory = null;
+    boolean useDirectoryView = false;
+    boolean streaming = false;
+    boolean normalise = false;
+    ResultCache resultCache = null;
+    String resultKey = null;
 
     /**
      * Constructor for a calculation with two files as operands and a provided target file.
@@ -60,23 +67,20 @@ public class ProfileCalculations
     /**
      * Constructor for a calculation with a directory for operands and a provided target file.
      *
-     * @param directory     - directory containing profile JSONs to be operated on.
+     * @param directory     - directory containing profile JSONs to be operated on, or a single profile.
      * @param verboseOutput - more process details are shown to the user if true.
      * @param targetFile    - file location to store the produced profile.
      */
     public ProfileCalculations(File directory, boolean verboseOutput, File targetFile) throws NullPointerException
     {
-        operands = new ArrayList<File>();
-
-        for (File child : Objects.requireNonNull(directory.listFiles()))
-        {//Adds all immediate children of the directory provided to the operands list.
-            if (child.isFile() && child.getPath().substring(child.getPath().lastIndexOf(".") + 1).equals("json"))
-                operands.add(child);
-        }
+        operands = listOperands(directory);
 
         if (operands.isEmpty())
             throw new NullPointerException("No profiles in the provided directory.");
 
+        if (directory.isDirectory())
+            this.directory = directory;
+
         this.targetFile = targetFile;
         this.verboseOutput = verboseOutput;
     }
@@ -84,26 +88,88 @@ public class ProfileCalculations
     /**
      * Constructor for a calculation with a directory for operands and no provided target file.
      *
-     * @param directory     - directory containing
+     * @param directory     - directory containing profile JSONs to be operated on, or a single profile.
      * @param verboseOutput - more process details are shown to the user if true.
      */
     public ProfileCalculations(File directory, boolean verboseOutput) throws NullPointerException
     {
-        operands = new ArrayList<File>();
-
-        for (File child : Objects.requireNonNull(directory.listFiles()))
-        {//Adds all immediate children of the directory provided to the operands list.
-            if (child.isFile() && child.getPath().substring(child.getPath().lastIndexOf(".") + 1).equals("json"))
-                operands.add(child);
-        }
+        operands = listOperands(directory);
 
         if (operands.isEmpty())
             throw new NullPointerException("No profiles in the provided directory.");
 
+        if (directory.isDirectory())
+            this.directory = directory;
+
         this.verboseOutput = verboseOutput;
         targetFile = new File("calculated.json");
     }
 
+    /**
+     * Constructor for a calculation evaluating a compound set expression, with a provided target file.
+     *
+     * @param expression    - set expression over profiles, as described in SetExpression.
+     * @param verboseOutput - more process details are shown to the user if true.
+     * @param targetFile    - file location to store the produced profile.
+     */
+    public ProfileCalculations(String expression, boolean verboseOutput, File targetFile)
+    {
+        operands = new ArrayList<File>();
+
+        this.expression = expression;
+        this.targetFile = targetFile;
+        this.verboseOutput = verboseOutput;
+    }
+
+    /**
+     * Constructor for a calculation evaluating a compound set expression, with no provided target file.
+     *
+     * @param expression    - set expression over profiles, as described in SetExpression.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    public ProfileCalculations(String expression, boolean verboseOutput)
+    {
+        operands = new ArrayList<File>();
+
+        this.expression = expression;
+        this.verboseOutput = verboseOutput;
+        targetFile = new File("calculated.json");
+    }
+
+    /**
+     * Lists the operands given by a single path: every profile in it if it is a directory, or otherwise the profile
+     * itself, which may be a result held by the profile source rather than a file.
+     * @param operand - a profile, or a directory containing profiles.
+     * @return an ArrayList of profiles.
+     * @throws NullPointerException - if the operand is a directory which cannot be listed.
+     */
+    private static ArrayList<File> listOperands(File operand) throws NullPointerException
+    {
+        if(!operand.isDirectory())
+            return new ArrayList<File>(Collections.singletonList(operand));
+
+        return listProfiles(operand);
+    }
+
+    /**
+     * Lists every profile, JSON or binary, which is an immediate child of a directory.
+     * @param directory - directory containing profiles.
+     * @return an ArrayList of the profiles in the directory.
+     * @throws NullPointerException - if the directory cannot be listed.
+     */
+    static ArrayList<File> listProfiles(File directory) throws NullPointerException
+    {
+        ArrayList<File> profiles = new ArrayList<File>();
+
+        for (File child : Objects.requireNonNull(directory.listFiles()))
+        {//Adds all immediate children of the directory provided to the list.
+            if (child.isFile() && (child.getPath().substring(child.getPath().lastIndexOf(".") + 1).equals("json") || BinaryProfile.isBinary(child)))
+                profiles.add(child);
+        }
+
+        return profiles;
+    }
+
     /**
      * Obtains the target file being used.
      * @return File object for the created profile's destination.
@@ -113,13 +179,89 @@ public class ProfileCalculations
         return targetFile;
     }
 
+    /**
+     * Enables or disables parallel mode, in which the profiles of a union or intersection are read concurrently
+     * and combined with a fork-join tree reduction. Profiles produced in parallel mode list their modules in sorted
+     * order, so that the output does not depend on the order in which operands happened to be read.
+     * @param parallel - true if operands should be processed in parallel.
+     */
+    public void setParallel(boolean parallel)
+    {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Sets whether the produced profile lists its modules in sorted order, giving a canonical file for any given
+     * set of modules.
+     * @param sortedOutput - true if modules should be written in sorted order.
+     */
+    public void setSortedOutput(boolean sortedOutput)
+    {
+        this.sortedOutput = sortedOutput;
+    }
+
+    /**
+     * Sets where the contents of operands are obtained from, in place of reading each operand from disk.
+     * @param profileSource - source of operand profiles, or null to read operands from disk.
+     */
+    public void setProfileSource(ProfileSource profileSource)
+    {
+        this.profileSource = profileSource;
+    }
+
+    /**
+     * Sets whether a union or intersection of a directory is taken from the directory's DirectoryView, which is kept
+     * for the rest of the session so that repeating the calculation only reads the profiles which have changed. The
+     * view is not used in parallel mode. A union builds the directory's view if it has none, since it reads every
+     * profile anyway, but an intersection only uses a view which already exists, so that it can otherwise stop
+     * reading as soon as it is empty.
+     * @param useDirectoryView - true if directory calculations should use the directory's view.
+     */
+    public void setUseDirectoryView(boolean useDirectoryView)
+    {
+        this.useDirectoryView = useDirectoryView;
+    }
+
+    /**
+     * Sets whether a union or intersection is calculated with a ProfileMerge, which uses the same amount of memory
+     * however many operands there are and writes each module to the target file as soon as it is known. Profiles
+     * produced this way list their modules in sorted order. Streaming takes priority over parallel mode and the
+     * directory's view.
+     * @param streaming - true if operands should be merged as sorted streams.
+     */
+    public void setStreaming(boolean streaming)
+    {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Sets whether the produced profile is written in whichever form is smaller: an enabled list of its modules, or
+     * a disabled list of the repository's modules it leaves out. Normalised profiles are not streamed.
+     * @param normalise - true if the smaller form should be written.
+     */
+    public void setNormalise(boolean normalise)
+    {
+        this.normalise = normalise;
+    }
+
+    /**
+     * Sets the cache results are reused from when a calculation is repeated over operands whose contents have not
+     * changed. Only calculations over JSON profiles on disk, written to a JSON target file, are cached.
+     * @param resultCache - cache of earlier results, or null to always calculate the result.
+     */
+    public void setResultCache(ResultCache resultCache)
+    {
+        this.resultCache = resultCache;
+    }
+
     /**
      * Creates a profile representing the union of all profiles in the operands list, writing the result to the target file.
+     * @return a Profile containing the result, which has also been written to the target file if there is one, or
+     *         null if the result was streamed or copied from the result cache straight to the target file.
      * @throws IOException - in the event of a standard I/O error.
      * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
      */
-    @SuppressWarnings("unchecked")
-    public void computeUnion() throws IOException, ParseException
+    public Profile computeUnion() throws IOException, ParseException
     {
         if(verboseOutput)
         {
@@ -127,29 +269,47 @@ public class ProfileCalculations
             for(File op : operands)
                 System.out.println(op.getPath());
         }
-        JSONArray currentProfile = new JSONArray();
+
+        if(reuseCachedResult("union"))
+            return null;
+
+        if(streaming)
+        {
+            return mergeOperands(1);
+        }
+
+        if(parallel)
+        {
+            return writeFinalProfile(reduceInParallel(false));
+        }
+
+        if(directory != null && useDirectoryView)
+        {
+            return writeFinalProfile(DirectoryView.open(directory, profileSource, verboseOutput).getUnion());
+        }
+
+        Profile currentProfile = new Profile();
 
         for (File operand : operands)
         {
-            JSONArray enabled = readProfile(operand);
-            currentProfile = union(currentProfile, enabled);
+            Profile enabled = readProfile(operand);
+            union(currentProfile, enabled);
             if (verboseOutput)
                 System.out.println("Process completed for profile: " + operand.getPath());
         }
 
-        writeFinalProfile(currentProfile);
+        return writeFinalProfile(currentProfile);
     }
 
     /**
      * Creates a profile representing the intersection of all profiles in the operands list, writing the result to the target file.
+     * @return a Profile containing the result, which has also been written to the target file if there is one, or
+     *         null if the result was streamed or copied from the result cache straight to the target file.
      * @throws IOException - in the event of a standard I/O error.
      * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
      */
-    @SuppressWarnings("unchecked")
-    public void computeIntersection() throws IOException, ParseException
+    public Profile computeIntersection() throws IOException, ParseException
     {
-        JSONArray currentProfile = readProfile(operands.get(0));
-
         if(verboseOutput)
         {
             System.out.println("Calculating intersection of following profiles:");
@@ -157,25 +317,126 @@ public class ProfileCalculations
                 System.out.println(op.getPath());
         }
 
-        for(File operand : operands)
+        if(reuseCachedResult("intersection"))
+            return null;
+
+        if(streaming)
         {
-            JSONArray enabled = readProfile(operand);
-            currentProfile = intersection(currentProfile, enabled);
+            return mergeOperands(operands.size());
+        }
+
+        if(parallel)
+        {
+            return writeFinalProfile(reduceInParallel(true));
+        }
+
+        if(directory != null && useDirectoryView && DirectoryView.isOpen(directory))
+        {
+            return writeFinalProfile(DirectoryView.open(directory, profileSource, verboseOutput).getIntersection());
+        }
+
+        Profile currentProfile = readProfile(operands.get(0)).copy();
+        if (verboseOutput)
+            System.out.println("Process completed for profile: " + operands.get(0).getPath());
+
+        for(File operand : operands.subList(1, operands.size()))
+        {
+            if(currentProfile.isEmpty())
+            {//Nothing can be added back to an empty intersection, so the remaining profiles need not be read.
+                if(verboseOutput)
+                    System.out.println("Intersection is already empty, skipping remaining profiles.");
+                break;
+            }
+
+            Profile enabled = readProfile(operand);
+            intersection(currentProfile, enabled);
             if (verboseOutput)
                 System.out.println("Process completed for profile: " + operand.getPath());
         }
 
-        writeFinalProfile(currentProfile);
+        return writeFinalProfile(currentProfile);
+    }
+
+    /**
+     * Creates a profile of every module enabled by at least a given number of the profiles in the operands list, such
+     * as the modules known by at least 3 of 5 team members, writing the result to the target file. The operands are
+     * always merged as sorted streams, as described in setStreaming.
+     * @param minimum - number of operands which must enable a module, from 1 (a union) to every operand (an
+     *                intersection).
+     * @return a Profile containing the result, or null if the result was streamed or copied from the result cache
+     *         straight to a JSON target file.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
+     * @throws ArgumentException - in the event that the minimum is not between 1 and the number of operands.
+     */
+    public Profile computeAtLeast(int minimum) throws IOException, ParseException, ArgumentException
+    {
+        if(minimum < 1 || minimum > operands.size())
+            throw new ArgumentException("The number of profiles enabling each module must be between 1 and " + operands.size() + ".");
+
+        if(verboseOutput)
+        {
+            System.out.println("Calculating modules enabled by at least " + minimum + " of following profiles:");
+            for(File op : operands)
+                System.out.println(op.getPath());
+        }
+
+        if(reuseCachedResult("atleast " + minimum))
+            return null;
+
+        return mergeOperands(minimum);
+    }
+
+    /**
+     * Creates a profile representing the complement of the operands, enabling every module in the repository which
+     * none of them enable, and writes the result to the target file. The repository's modules are taken from the
+     * local copy of its module list kept for CREATE FROM NAMES, and the complement is taken a machine word at a time
+     * over all of them.
+     * @return a Profile containing the result, which has also been written to the target file if there is one, or
+     *         null if the result was copied from the result cache straight to the target file.
+     * @throws IOException - in the event of a standard I/O error, or if the repository's module list cannot be read.
+     * @throws ParseException - in the event that a provided profile JSON or the module list cannot be parsed.
+     */
+    public Profile computeComplement() throws IOException, ParseException
+    {
+        if(verboseOutput)
+        {
+            System.out.println("Calculating complement of following profiles:");
+            for(File op : operands)
+                System.out.println(op.getPath());
+        }
+
+        if(reuseCachedResult("complement"))
+            return null;
+
+        Profile universe = ModuleMappings.obtain(verboseOutput).getUniverse(ModuleDictionary.getShared());
+        Profile excluded = readProfile(operands.get(0));
+        if(operands.size() > 1)
+        {
+            excluded = excluded.copy();
+            for(File operand : operands.subList(1, operands.size()))
+                union(excluded, readProfile(operand));
+        }
+
+        long started = Statistics.start();
+        Profile result = universe.difference(excluded);
+        Statistics.end(Statistics.Phase.OPERATION, started);
+
+        if(verboseOutput)
+            System.out.println(result.size() + " of the repository's " + universe.size() + " modules are not enabled.");
+
+        return writeFinalProfile(result);
     }
 
     /**
      * Creates a profile representing the difference of two profiles in the operands list, writing the result to the target file.
+     * @return a Profile containing the result, which has also been written to the target file if there is one, or
+     *         null if the result was copied from the result cache straight to the target file.
      * @throws IOException - in the event of a standard I/O error.
      * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
      * @throws ArgumentException - in the event that the wrong number of operands are provided for this operation.
      */
-    @SuppressWarnings("unchecked")
-    public void computeDifference() throws IOException, ParseException, ArgumentException
+    public Profile computeDifference() throws IOException, ParseException, ArgumentException
     {
         if(operands.size() != 2)
             throw new ArgumentException("Difference operation requires 2 operands.");
@@ -186,88 +447,263 @@ public class ProfileCalculations
             System.out.println("Computing difference operation " + operands.get(0).getPath() + " - " + operands.get(1).getPath());
         }
 
-        JSONArray profile1 = readProfile(operands.get(0));
-        JSONArray profile2 = readProfile(operands.get(1));
-        writeFinalProfile(difference(profile1, profile2));
+        if(reuseCachedResult("difference"))
+            return null;
+
+        Profile profile1 = readProfile(operands.get(0)).copy();
+        Profile profile2 = readProfile(operands.get(1));
+        difference(profile1, profile2);
+        return writeFinalProfile(profile1);
     }
 
     /**
-     * Completes a simple union of two sets of enabled modules.
-     * @param profile1 - JSONArray containing the list of enabled modules from the first profile.
-     * @param profile2 - JSONArray containing the list of enabled modules from the second profile.
-     * @return a JSONArray containing the list of enabled modules in at least one of the provided profiles.
+     * Creates a profile from the result of this calculation's set expression, writing the result to the target file.
+     * @return a Profile containing the result, which has also been written to the target file if there is one.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
+     * @throws ArgumentException - in the event that the expression is badly formed or names a missing profile.
      */
-    @SuppressWarnings("unchecked")
-    private JSONArray union(JSONArray profile1, JSONArray profile2)
+    public Profile computeExpression() throws IOException, ParseException, ArgumentException
     {
-        JSONArray result = new JSONArray();
-        result.addAll(profile1);
-        result.addAll(profile2);
-        return result;
+        if(expression == null)
+            throw new ArgumentException("No expression has been provided.");
+
+        SetExpression evaluator = new SetExpression(this, verboseOutput);
+        ExpressionNode root = evaluator.parse(expression);
+
+        if(verboseOutput)
+            System.out.println("Evaluating expression " + root.getKey());
+
+        return writeFinalProfile(evaluator.evaluate(root));
+    }
+
+    /**
+     * Reads and combines every operand on a bounded fork-join pool with no more threads than there are cores.
+     * @param intersect - true to compute the intersection of the operands, false to compute their union.
+     * @return a Profile containing the combined result.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
+     */
+    private Profile reduceInParallel(boolean intersect) throws IOException, ParseException
+    {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), operands.size()));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        if(verboseOutput)
+            System.out.println("Processing profiles in parallel using " + threads + " threads.");
+
+        try
+        {
+            return pool.invoke(new ProfileReduction(this, operands, intersect));
+        }
+        catch(CompletionException e)
+        {//Failures while reading an operand are rethrown as they would have been in a sequential calculation.
+            Throwable cause = e;
+            while(cause instanceof CompletionException && cause.getCause() != null)
+                cause = cause.getCause();
+
+            if(cause instanceof IOException)
+                throw (IOException) cause;
+            if(cause instanceof ParseException)
+                throw (ParseException) cause;
+            throw e;
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Merges every operand as a sorted stream, writing each module enabled by enough operands straight to the target
+     * file. A result with no target file, or a binary one, is built in memory instead.
+     * @param minimum - number of operands which must enable a module.
+     * @return a Profile containing the result, or null if the result was streamed straight to a JSON target file.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
+     */
+    private Profile mergeOperands(int minimum) throws IOException, ParseException
+    {
+        ProfileMerge merge = new ProfileMerge(operands, profileSource, verboseOutput);
+        if(targetFile == null || normalise || BinaryProfile.isBinary(targetFile))
+            return writeFinalProfile(merge.collect(minimum));
+
+        int written = merge.writeTo(targetFile, minimum);
+        if(verboseOutput)
+            System.out.println("Wrote " + written + " modules to " + targetFile.getPath());
+        storeCachedResult();
+
+        return null;
+    }
+
+    /**
+     * Completes a simple union of two sets of enabled modules. Each module appears in the result at most once.
+     * @param profile1 - Profile containing the enabled modules from the first profile, which receives the result.
+     * @param profile2 - Profile containing the enabled modules from the second profile.
+     */
+    private void union(Profile profile1, Profile profile2)
+    {
+        long started = Statistics.start();
+        profile1.addAll(profile2);
+        Statistics.end(Statistics.Phase.OPERATION, started);
     }
 
     /**
      * Completes a simple intersection of two sets of enabled modules.
-     * @param profile1 - JSONArray containing the list of enabled modules from the first profile.
-     * @param profile2 - JSONArray containing the list of enabled modules from the second profile.
-     * @return a JSONArray containing the list of enabled modules in both of the provided profiles.
+     * @param profile1 - Profile containing the enabled modules from the first profile, which receives the result.
+     * @param profile2 - Profile containing the enabled modules from the second profile.
      */
-    @SuppressWarnings("unchecked")
-    private JSONArray intersection(JSONArray profile1, JSONArray profile2)
+    private void intersection(Profile profile1, Profile profile2)
     {
-        JSONArray result = new JSONArray();
-        result.addAll(profile1);
-        profile1.removeAll(profile2);
-        result.removeAll(profile1);
-        return result;
+        long started = Statistics.start();
+        profile1.retainAll(profile2);
+        Statistics.end(Statistics.Phase.OPERATION, started);
     }
 
 
     /**
      * Completes a simple set difference of two sets of enabled modules.
-     * @param profile1 - JSONArray containing the list of enabled modules from profile 1 (being removed FROM).
-     * @param profile2 - JSONArray containing the list of enabled modules from profile 2 (being REMOVED).
-     * @return a JSONArray containing the list of enabled modules in profile1 BUT NOT profile2.
+     * @param profile1 - Profile containing the enabled modules from profile 1 (being removed FROM), which receives the result.
+     * @param profile2 - Profile containing the enabled modules from profile 2 (being REMOVED).
+     */
+    private void difference(Profile profile1, Profile profile2)
+    {
+        long started = Statistics.start();
+        profile1.removeAll(profile2);
+        Statistics.end(Statistics.Phase.OPERATION, started);
+    }
+
+    /**
+     * Copies the result of this calculation from the result cache to the target file, if the same calculation has
+     * been completed before over operands with the same contents. Otherwise, the calculation's key is kept so that
+     * its result can be stored once it has been written.
+     * @param operation - name of the operation, along with anything other than the operands which affects its result.
+     * @return true if the result was copied from the cache.
+     * @throws IOException - in the event of a standard I/O error.
+     */
+    private boolean reuseCachedResult(String operation) throws IOException
+    {
+        resultKey = null;
+        if(resultCache == null || targetFile == null || BinaryProfile.isBinary(targetFile))
+            return false; //Binary results refer to their own folder's dictionary, so cannot be copied elsewhere.
+
+        boolean sorted = sortedOutput || parallel || streaming;
+        String key = resultCache.keyFor(operation + (sorted ? " sorted" : "") + (normalise ? " normalised" : ""), operands);
+        if(key == null)
+            return false;
+
+        if(resultCache.copyTo(key, targetFile))
+        {
+            if(verboseOutput)
+                System.out.println("Operands are unchanged since this calculation was last completed, reusing its result.");
+            return true;
+        }
+
+        resultKey = key;
+        return false;
+    }
+
+    /**
+     * Stores the profile just written to the target file in the result cache, if reuseCachedResult found no result
+     * for this calculation.
+     * @throws IOException - in the event of a standard I/O error.
      */
-    @SuppressWarnings("unchecked")
-    private JSONArray difference(JSONArray profile1, JSONArray profile2)
+    private void storeCachedResult() throws IOException
     {
-        JSONArray result = new JSONArray();
-        result.addAll(profile1);
-        result.removeAll(profile2);
-        return result;
+        if(resultKey == null)
+            return;
+
+        resultCache.store(resultKey, targetFile);
+        resultKey = null;
     }
 
     /**
-     * Writes a created profile to the target file.
-     * @param enabled - JSONArray containing modules which should be in the final profiles Enabled list.
+     * Writes a created profile to the target file, unless the calculation has no target file.
+     * @param enabled - Profile containing modules which should be in the final profiles Enabled list.
+     * @return the Profile which was written.
      * @throws IOException - in the event of a standard file writing error.
+     * @throws ParseException - in the event that the profile is being normalised and the repository's module list
+     *                        cannot be parsed.
      */
-    @SuppressWarnings("unchecked")
-    private void writeFinalProfile(JSONArray enabled) throws IOException
+    private Profile writeFinalProfile(Profile enabled) throws IOException, ParseException
     {
-        JSONObject profileObj = new JSONObject();
+        if(targetFile != null)
+        {
+            if(normalise)
+                writeDocument(ProfileDocument.normalised(enabled, ModuleMappings.obtain(verboseOutput).getUniverse(enabled.getDictionary())), targetFile, sortedOutput || parallel);
+            else
+                writeProfile(enabled, targetFile, sortedOutput || parallel);
+            if(profileSource != null)
+                profileSource.stored(targetFile, enabled);
+            storeCachedResult();
+        }
 
-        profileObj.put("EnabledList", enabled);
-        profileObj.put("Operation", "0");
+        return enabled;
+    }
 
-        Files.write(Paths.get(targetFile.getPath()), profileObj.toJSONString().getBytes());
+    /**
+     * Writes a profile containing the given modules, in the binary format if the target has the .kpcp extension
+     * and as JSON otherwise. The profile has an empty Disabled list and an Operation of 0, as the mod selector
+     * itself writes.
+     * @param enabled - Profile containing modules which should be in the profile's Enabled list.
+     * @param targetFile - file location to store the profile.
+     * @param sorted - true if the modules should be listed in sorted order.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    static void writeProfile(Profile enabled, File targetFile, boolean sorted) throws IOException
+    {
+        writeDocument(ProfileDocument.of(enabled), targetFile, sorted);
     }
 
     /**
-     * Reads a provided profile JSON, extracting its enabled list.
+     * Writes every part of a profile which is present in a document, in the binary format if the target has the
+     * .kpcp extension and as JSON otherwise.
+     * @param document - the parts of the profile to write.
+     * @param targetFile - file location to store the profile.
+     * @param sorted - true if the modules should be listed in sorted order.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    static void writeDocument(ProfileDocument document, File targetFile, boolean sorted) throws IOException
+    {
+        if(BinaryProfile.isBinary(targetFile))
+            BinaryProfile.write(targetFile, document);
+        else
+            ProfileWriter.write(targetFile, document, sorted);
+    }
+
+    /**
+     * Reads a provided profile operand, extracting the modules it enables. The Profile returned may be shared, so it must
+     * not be modified.
      * @param profile - a JSON profile operand.
-     * @return a JSONArray containing elements in the profile's Enabled list.
+     * @return a Profile containing elements in the profile's Enabled list.
      * @throws IOException - in the event of a standard file-reading error.
      * @throws ParseException - in the event that the JSON file cannot be parsed.
      */
-    private JSONArray readProfile(File profile) throws IOException, ParseException
+    Profile readProfile(File profile) throws IOException, ParseException
     {
-        JSONParser parser = new JSONParser();
-        FileReader reader = new FileReader(profile);
+        if(profileSource != null)
+            return profileSource.read(profile);
 
-        JSONObject profileObject = (JSONObject)parser.parse(reader);
+        return readProfileFile(profile);
+    }
 
-        return (JSONArray)profileObject.get("EnabledList");
+    /**
+     * Reads a profile from disk, extracting the modules it enables in a single streaming pass. A profile's Disabled
+     * list is taken into account as described in ProfileDocument. Binary profiles are read through their dictionary,
+     * while any other file is read as JSON.
+     * @param profile - a JSON or binary profile file.
+     * @return a Profile containing every module the profile enables.
+     * @throws IOException - in the event of a standard file-reading error.
+     * @throws ParseException - in the event that the JSON file cannot be parsed.
+     */
+    static Profile readProfileFile(File profile) throws IOException, ParseException
+    {
+        if(BinaryProfile.isBinary(profile))
+            return BinaryProfile.readModules(profile);
+
+        try(ProfileReader reader = new ProfileReader(profile))
+        {
+            return reader.readModules();
+        }
     }
 }
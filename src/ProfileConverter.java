@@ -0,0 +1,108 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Converts profiles between the mod selector's JSON format and the calculator's binary format.
+ * Every part of a profile is carried across: its enabled list, its disabled list and its operation.
+ *
+ * @author Daniel Burton
+ */
+public class ProfileConverter
+{
+    private final File source;
+    private final File target;
+    private final boolean verboseOutput;
+
+    /**
+     * Creates a conversion of a single profile or of every profile in a directory.
+     * @param source - a JSON or binary profile, or a directory of profiles.
+     * @param target - where the converted profile should be stored (or the directory to store converted profiles in),
+     *                 or null to store them alongside the originals.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    public ProfileConverter(File source, File target, boolean verboseOutput)
+    {
+        this.source = source;
+        this.target = target;
+        this.verboseOutput = verboseOutput;
+    }
+
+    /**
+     * Converts a JSON profile to the binary format or a binary profile to JSON. A directory has its JSON profiles
+     * converted to the binary format, unless it only holds binary profiles, in which case they are converted to JSON.
+     * @return the number of profiles converted.
+     * @throws ArgumentException - if the target does not suit the source.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a JSON profile cannot be parsed.
+     */
+    public int convert() throws ArgumentException, IOException, ParseException
+    {
+        if(!source.isDirectory())
+        {
+            File destination = target != null ? target : new File(source.getAbsoluteFile().getParentFile(), convertedName(source));
+            if(BinaryProfile.isBinary(source) == BinaryProfile.isBinary(destination))
+                throw new ArgumentException("A profile can only be converted between the .json and ." + BinaryProfile.EXTENSION + " formats.");
+
+            convertProfile(source, destination);
+            return 1;
+        }
+
+        File directory = target != null ? target : source;
+        if(directory.isFile())
+            throw new ArgumentException("A directory of profiles must be converted into a directory.");
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create the directory " + directory.getPath() + ".");
+
+        ArrayList<File> profiles = new ArrayList<File>();
+        ArrayList<File> binaryProfiles = new ArrayList<File>();
+        for(File profile : ProfileCalculations.listProfiles(source))
+            (BinaryProfile.isBinary(profile) ? binaryProfiles : profiles).add(profile);
+        if(profiles.isEmpty())
+            profiles = binaryProfiles;
+
+        for(File profile : profiles)
+            convertProfile(profile, new File(directory, convertedName(profile)));
+
+        return profiles.size();
+    }
+
+    /**
+     * Converts a single profile.
+     * @param profile - the profile to convert.
+     * @param destination - where the converted profile should be stored.
+     */
+    private void convertProfile(File profile, File destination) throws IOException, ParseException
+    {
+        if(BinaryProfile.isBinary(profile))
+        {
+            ProfileWriter.write(destination, BinaryProfile.readDocument(profile), false);
+        }
+        else
+        {
+            try(ProfileReader reader = new ProfileReader(profile))
+            {
+                BinaryProfile.write(destination, reader.readDocument());
+            }
+        }
+
+        if(verboseOutput)
+            System.out.println("Converted " + profile.getPath() + " to " + destination.getPath());
+    }
+
+    /**
+     * Obtains the name of a profile once converted to the other format.
+     * @param profile - the profile to convert.
+     * @return the profile's name with its extension swapped.
+     */
+    private static String convertedName(File profile)
+    {
+        String name = profile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+
+        return base + (BinaryProfile.isBinary(profile) ? ".json" : "." + BinaryProfile.EXTENSION);
+    }
+}
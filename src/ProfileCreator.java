@@ -1,14 +1,8 @@
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
-import java.io.*;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 /**
  * Handles creation of a profile from a list of modules.
@@ -24,8 +18,7 @@ public class ProfileCreator
     private File targetFile = null;
     private boolean verboseOutput = false;
     private boolean useNames = false;
-
-    private static final String JSON_URL = "https://ktane.timwi.de/json/raw";
+    private boolean sortedOutput = false;
 
     /**
      * Creates a new ProfileCreator without a destination file. The created file will be dumped in the user's
@@ -67,105 +60,95 @@ public class ProfileCreator
         return targetFile;
     }
 
+    /**
+     * Sets whether the created profile lists its modules in sorted order rather than the order they were listed.
+     * @param sortedOutput - true if modules should be written in sorted order.
+     */
+    public void setSortedOutput(boolean sortedOutput)
+    {
+        this.sortedOutput = sortedOutput;
+    }
+
     /**
      * Creates a profile from the object's list file operand.
+     * @return the Profile which was written.
      * @throws IOException - in the event of a standard input error.
      * @throws ListFormatException - in the event the list file is badly formatted.
      * @throws ParseException - in the event that the json source used to map module names to module codes is badly formatted.
      */
-    @SuppressWarnings("unchecked")
-    public void createProfile() throws IOException, ListFormatException, ParseException
+    public Profile createProfile() throws IOException, ListFormatException, ParseException
     {
-        ArrayList<String> moduleCodesToInclude = new ArrayList<String>();
-
-        if(!useNames)
-            moduleCodesToInclude = readModuleCodes();
-        else
-            moduleCodesToInclude = readModuleCodesFromModuleNames();
-
-        if(verboseOutput)
-            System.out.println("Module list read successfully.");
-
         if(targetFile != null && !targetFile.getPath().substring(targetFile.getPath().lastIndexOf(".") + 1).equals("json"))
         {//If the user has specified a non-json file for output, throw an exception.
             throw new IOException("If a destination file for your profile is specified, it must be a JSON file.");
         }
 
-        JSONArray modulesList = new JSONArray();
-        modulesList.addAll(moduleCodesToInclude);
+        Profile profile = buildProfile();
 
-        JSONObject profileObj = new JSONObject();
-        profileObj.put("Operation", 0);
-        profileObj.put("EnabledList", modulesList);
-        profileObj.put("DisabledList", new JSONArray());
+        ProfileCalculations.writeProfile(profile, targetFile, sortedOutput);
 
         if(verboseOutput)
-            System.out.println("JSON objects created successfully.");
+            System.out.println("Profile written successfully.");
 
-        Files.write(Paths.get(targetFile.getPath()), profileObj.toJSONString().getBytes());
+        return profile;
     }
 
     /**
-     * Reads a text file containing module codes to be included in the file.
-     * @return an ArrayList of module codes to be included in the file.
-     * @throws IOException - in the event of any errors reading the file.
-     * @throws ListFormatException - if the provided text file is not formatted correctly.
+     * Reads the object's list file operand into a profile held in memory, without writing it anywhere.
+     * @return a Profile enabling every module in the list, each of which appears once.
+     * @throws IOException - in the event of a standard input error.
+     * @throws ListFormatException - in the event the list file is badly formatted.
+     * @throws ParseException - in the event that the json source used to map module names to module codes is badly formatted.
      */
-    private ArrayList<String> readModuleCodes() throws IOException, ListFormatException
+    public Profile buildProfile() throws IOException, ListFormatException, ParseException
     {
-        BufferedReader listReader = new BufferedReader(new FileReader(moduleList));
-        String currentLine = null;
-        ArrayList<String> moduleCodes = new ArrayList<String>();
-
-        while((currentLine = listReader.readLine()) != null)
-        {//Continually reads lines of the file until
+        Profile profile;
 
-            if(!containsRelevantChars(currentLine))
-                continue;
-            else if(!currentLine.startsWith("["))
-            {//It is not checked if the module code is a legitimate module, as the mod selector manages this already.
-                moduleCodes.add(currentLine);
-                if(verboseOutput)
-                    System.out.println("Identified module: " + currentLine);
-            }
-            else if(currentLine.contains("]"))
+        if(!useNames)
+        {//Module codes go straight from the mapped list into the profile, dropping any listed more than once.
+            try(ModuleListReader reader = new ModuleListReader(moduleList))
             {
-                currentLine = currentLine.substring(1, currentLine.indexOf("]"));
-                String[] modulesInLine = currentLine.split(", ");
-                moduleCodes.addAll(Arrays.asList(modulesInLine));
-                if(verboseOutput)
-                {
-                    for(String code : modulesInLine)
-                        System.out.println("Identified module code: " + code);
-                }
-            }
-            else
-            {//If a line has a [ but no ], it has been formatted badly.
-                throw new ListFormatException("Badly formatted module list file!");
+                profile = reader.readProfile();
             }
 
+            if(verboseOutput)
+            {
+                for(String code : profile.getModuleCodes())
+                    System.out.println("Identified module: " + code);
+            }
         }
+        else
+            profile = Profile.fromCodes(readModuleCodesFromModuleNames()); //Drops any modules listed more than once.
 
-        moduleCodes.remove("ALL_SOLVABLE");
-        moduleCodes.remove("ALL_NEEDY");
+        if(verboseOutput)
+            System.out.println("Module list read successfully.");
 
-        return moduleCodes;
+        return profile;
     }
 
     /**
-     * Establishes if a line in the file actually contains relevant characters.
-     * @param line - String file line to check.
-     * @return true if contains useful characters, false if it's just a newline or similar.
+     * Reads each entry of the object's list file operand as text.
+     * @return an ArrayList of the entries in the list, other than ALL_SOLVABLE and ALL_NEEDY.
+     * @throws IOException - in the event of any errors reading the file.
+     * @throws ListFormatException - if the provided text file is not formatted correctly.
      */
-    private boolean containsRelevantChars(String line)
+    private ArrayList<String> readEntries() throws IOException, ListFormatException
     {
-        for(char c : line.toCharArray())
+        ArrayList<String> entries;
+        try(ModuleListReader reader = new ModuleListReader(moduleList))
+        {
+            entries = reader.readEntries();
+        }
+
+        if(verboseOutput)
         {
-            if((int) c >= 48 && (int) c <= 122)
-                return true;
+            for(String entry : entries)
+                System.out.println("Identified module: " + entry);
         }
 
-        return false;
+        entries.removeIf(entry -> entry.equals("ALL_SOLVABLE") || entry.equals("ALL_NEEDY")); //Every occurrence, as when reading codes.
+
+        return entries;
     }
 
     /**
@@ -177,54 +160,70 @@ public class ProfileCreator
      */
     private ArrayList<String> readModuleCodesFromModuleNames() throws IOException, ListFormatException, ParseException
     {
-        ArrayList<String> moduleNames = readModuleCodes();
+        ArrayList<String> moduleNames = readEntries();
         ArrayList<String> moduleCodes = new ArrayList<String>();
 
-        JSONArray moduleInfo = obtainModuleMappings();
-        boolean codeFound = false;
+        ModuleNameIndex index = ModuleMappings.obtain(verboseOutput).getNameIndex();
+        int maxDistance = (int) Settings.getLong("names.maxDistance", ModuleNameIndex.DEFAULT_MAX_DISTANCE);
+        boolean autoAccept = Settings.getBoolean("names.autoAccept", true);
+        ArrayList<String> unmatched = new ArrayList<String>();
+        long started = Statistics.start();
 
         for(String name : moduleNames)
         {
-            codeFound = false;
-
-            for(Object o : moduleInfo)
+            String code = index.resolve(name);
+            if(code != null)
             {
-                String code = ((String) ((JSONObject) o).get("ModuleID")).toLowerCase();
-                String modName = ((String) ((JSONObject) o).get("Name")).toLowerCase();
-                if (modName.equals(name.toLowerCase()) || modName.equals(("the "+ name).toLowerCase()))
-                {
-                    if (verboseOutput)
-                        System.out.println("Successfully converted module name " + name + " to code " + code);
-                    moduleCodes.add(code);
-                    codeFound = true;
-                    break;
-                }
+                Statistics.count(Statistics.Counter.NAMES_RESOLVED, 1);
+                if (verboseOutput)
+                    System.out.println("Successfully converted module name " + name + " to code " + code);
+                moduleCodes.add(code);
+                continue;
             }
 
-            if(!codeFound)
+            ArrayList<ModuleNameIndex.Candidate> candidates = index.findSimilar(name, maxDistance);
+            String corrected = autoAccept ? ModuleNameIndex.unambiguous(candidates) : null;
+            if(corrected != null)
+            {//Always reported, so that a wrong guess does not go unnoticed.
+                Statistics.count(Statistics.Counter.NAMES_CORRECTED, 1);
+                System.out.println("Assuming module name " + name + " means " + candidates.get(0).getName() + " (" + corrected + ")");
+                moduleCodes.add(corrected);
+            }
+            else
             {
-                if(verboseOutput)
-                    System.out.println("Unable to find match for module name: " + name);
+                Statistics.count(Statistics.Counter.NAMES_UNRESOLVED, 1);
+                unmatched.add(describeUnmatched(name, candidates));
             }
         }
+        Statistics.end(Statistics.Phase.RESOLVE, started); //Includes any verbose output.
+
+        if(!unmatched.isEmpty())
+        {
+            System.out.println(unmatched.size() + " module names could not be matched and were left out of the profile:");
+            for(String line : unmatched)
+                System.out.println("    " + line);
+        }
 
         return moduleCodes;
     }
 
     /**
-     * Obtains the raw JSON from the KTANE manual repository and stores it in
-     * @return JSONObject containing information on all modded modules known to the KTANE Manual Repo.
-     * @throws IOException - in the event of a standard input error.
-     * @throws ParseException - in the event that the json downloaded is improperly formatted.
+     * Describes a module name which could not be matched, along with the closest modules if there are any.
+     * @param name - module name as written in the list.
+     * @param candidates - similar modules, closest first.
+     * @return a line describing the name for the user.
      */
-    @SuppressWarnings("unchecked")
-    private JSONArray obtainModuleMappings() throws IOException, ParseException
+    private static String describeUnmatched(String name, ArrayList<ModuleNameIndex.Candidate> candidates)
     {
-        URL url = new URL(JSON_URL);
-        File mappingsFile = new File("codes.txt");
-        InputStreamReader in = new InputStreamReader(url.openStream());
-        JSONParser parser = new JSONParser();
+        StringBuilder line = new StringBuilder(name);
+        for(int i = 0; i < Math.min(3, candidates.size()); i++)
+        {
+            ModuleNameIndex.Candidate candidate = candidates.get(i);
+            line.append(i == 0 ? " - did you mean " : " or ").append(candidate.getName()).append(" (").append(candidate.getCode()).append(")");
+        }
+        if(!candidates.isEmpty())
+            line.append("?");
 
-        return (JSONArray) ((JSONObject)parser.parse(in)).get("KtaneModules");
+        return line.toString();
     }
 }
@@ -0,0 +1,131 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+
+/**
+ * Holds everything the mod selector stores in a profile: its enabled list, its disabled list and its operation.
+ * Used when converting a profile between formats, where every part must be carried across, and when writing a
+ * profile in whichever form is smaller.
+ *
+ * A profile enables the modules in its enabled list, or every module in the repository if it has no enabled list,
+ * less any modules in its disabled list. A profile enabling almost everything, such as an expert's, is therefore
+ * far smaller written as a disabled list alone.
+ *
+ * @author Daniel Burton
+ */
+public class ProfileDocument
+{
+    static final Integer DEFAULT_OPERATION = 0; //The mod selector writes the operation as a number, so the calculator does too.
+
+    private final Profile enabled;
+    private final Profile disabled;
+    private final Object operation;
+
+    /**
+     * Creates a document from its parts. A part which is null was absent from the profile (or was given as null,
+     * which the mod selector treats in the same way).
+     * @param enabled - modules in the profile's Enabled list, or null.
+     * @param disabled - modules in the profile's Disabled list, or null.
+     * @param operation - the profile's Operation as a Number, String or Boolean, or null.
+     */
+    public ProfileDocument(Profile enabled, Profile disabled, Object operation)
+    {
+        this.enabled = enabled;
+        this.disabled = disabled;
+        this.operation = operation;
+    }
+
+    /**
+     * Creates a document enabling exactly the given modules, with an empty disabled list.
+     * @param modules - modules the profile enables.
+     * @return a ProfileDocument listing every module in its enabled list.
+     */
+    public static ProfileDocument of(Profile modules)
+    {
+        return new ProfileDocument(modules, new Profile(modules.getDictionary()), DEFAULT_OPERATION);
+    }
+
+    /**
+     * Creates a document enabling exactly the given modules, listing whichever is smaller: the modules themselves, or
+     * the modules of the repository they leave out. The second form is only possible if every module is in the
+     * repository.
+     * @param modules - modules the profile enables.
+     * @param universe - every module in the repository.
+     * @return a ProfileDocument with either an enabled list or a disabled list.
+     * @throws IOException - in the event that the repository's modules cannot be read.
+     * @throws ParseException - in the event that the repository's modules cannot be parsed.
+     */
+    public static ProfileDocument normalised(Profile modules, Profile universe) throws IOException, ParseException
+    {
+        if(modules.getDictionary() == universe.getDictionary() && modules.countCommon(universe) == modules.size())
+        {
+            Profile missing = universe.difference(modules);
+            ProfileDocument document = new ProfileDocument(null, missing, DEFAULT_OPERATION);
+            if(missing.size() < modules.size() && readsAs(document, modules))
+                return document;
+        }
+
+        return of(modules);
+    }
+
+    /**
+     * Checks that a document will be read back as exactly the given modules, so that a disabled list is never written
+     * in place of modules it would not give back (such as when the repository's modules have changed since the
+     * universe was obtained).
+     * @param document - document about to be written.
+     * @param modules - modules the document must enable.
+     * @return true if the document enables exactly the modules.
+     */
+    private static boolean readsAs(ProfileDocument document, Profile modules) throws IOException, ParseException
+    {
+        Profile read = document.getModules();
+        return read.size() == modules.size() && read.countCommon(modules) == modules.size();
+    }
+
+    /**
+     * Obtains the modules the profile enables, taking its disabled list into account. The repository's modules are
+     * only needed, and only loaded, for a profile with no enabled list, which enables every module in the repository
+     * whether or not it has a disabled list.
+     * @return a Profile of the enabled modules, which may be shared with this document.
+     * @throws IOException - in the event that the repository's modules are needed but cannot be read.
+     * @throws ParseException - in the event that the repository's modules are needed but cannot be parsed.
+     */
+    public Profile getModules() throws IOException, ParseException
+    {
+        if(enabled == null)
+        {//The repository's modules are shared by the whole session, so a copy is made even if nothing is disabled.
+            ModuleDictionary dictionary = disabled != null ? disabled.getDictionary() : ModuleDictionary.getShared();
+            Profile universe = ModuleMappings.obtain(false).getUniverse(dictionary);
+            return disabled == null ? universe.copy() : universe.difference(disabled);
+        }
+
+        return disabled == null || disabled.isEmpty() ? enabled : enabled.difference(disabled);
+    }
+
+    /**
+     * Obtains the profile's Enabled list.
+     * @return a Profile of the enabled modules, or null if the profile has no Enabled list.
+     */
+    public Profile getEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Obtains the profile's Disabled list.
+     * @return a Profile of the disabled modules, or null if the profile has no Disabled list.
+     */
+    public Profile getDisabled()
+    {
+        return disabled;
+    }
+
+    /**
+     * Obtains the profile's Operation.
+     * @return the Operation as a Number, String or Boolean, or null if the profile has no Operation.
+     */
+    public Object getOperation()
+    {
+        return operation;
+    }
+}
@@ -0,0 +1,393 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An inverted index over a directory of profiles, recording for each module which of the profiles enable it.
+ * Questions such as "which profiles enable this module" or "which profiles cover every module of this mission" are
+ * then answered from the index, without reading any of the profiles.
+ *
+ * Each profile in the directory is given a number, and each module's posting list is the set of numbers of the
+ * profiles enabling it, held as a bit set in memory. The index is saved in the directory as profiles.kpci, with each
+ * posting list stored as the varint gaps between its profile numbers. The size and modification time of every
+ * profile is saved too, so that when the index is next used only profiles which were added or changed are read, and
+ * removed profiles are dropped.
+ *
+ * @author Daniel Burton
+ */
+public class ProfileIndex
+{
+    static final String FILE_NAME = "profiles.kpci";
+    private static final byte[] MAGIC = {'K', 'P', 'C', 'I'};
+    private static final int FORMAT_VERSION = 1;
+    private static final ConcurrentHashMap<String, ProfileIndex> OPEN = new ConcurrentHashMap<String, ProfileIndex>();
+
+    private final File directory;
+    private final long generation;
+    private final ArrayList<Entry> profiles = new ArrayList<Entry>();
+    private final HashMap<String, BitSet> postings = new HashMap<String, BitSet>();
+    private boolean loaded = false;
+
+    /**
+     * Creates an empty index over a directory.
+     * @param directory - directory of profiles being indexed.
+     * @param generation - generation of the module mappings the profiles are read under.
+     * @param loaded - true if the index saved in the directory should not be read.
+     */
+    private ProfileIndex(File directory, long generation, boolean loaded)
+    {
+        this.directory = directory;
+        this.generation = generation;
+        this.loaded = loaded;
+    }
+
+    /**
+     * Obtains the index over a directory, bringing it up to date with the profiles currently in the directory. The
+     * index is kept in memory for the rest of the session, and saved to the directory whenever it changes. An index
+     * built before the repository's modules changed is built again from every profile.
+     * @param directory - directory of profiles.
+     * @param source - source used to read profiles which need indexing, or null to read them from disk directly.
+     * @param verboseOutput - more process details are shown to the user if true.
+     * @return an up to date ProfileIndex.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     */
+    public static ProfileIndex open(File directory, ProfileSource source, boolean verboseOutput) throws IOException, ParseException
+    {
+        File canonical = directory.getCanonicalFile();
+        long generation = ModuleMappings.getGeneration();
+        ProfileIndex index = OPEN.compute(canonical.getPath(), (path, existing) ->
+        {//An index built before the repository's modules changed is rebuilt from every profile, ignoring the saved one.
+            if(existing != null && existing.generation == generation)
+                return existing;
+            return new ProfileIndex(canonical, generation, existing != null);
+        });
+
+        synchronized(index)
+        {
+            if(!index.loaded)
+                index.load();
+            index.update(source, verboseOutput);
+        }
+
+        return index;
+    }
+
+    /**
+     * Finds the profiles which enable every one of the given modules.
+     * @param codes - module codes to look for.
+     * @return the matching profiles, in the order they were indexed.
+     */
+    public synchronized ArrayList<File> coversAll(Collection<String> codes)
+    {
+        ArrayList<BitSet> lists = new ArrayList<BitSet>();
+        for(String code : codes)
+        {
+            BitSet posting = postings.get(code);
+            if(posting == null)
+                return new ArrayList<File>(); //No profile enables this module, so none can enable them all.
+            lists.add(posting);
+        }
+
+        BitSet matches = new BitSet();
+        if(lists.isEmpty())
+        {
+            for(int i = 0; i < profiles.size(); i++)
+                matches.set(i, profiles.get(i) != null);
+            return filesOf(matches);
+        }
+
+        lists.sort(Comparator.comparingInt(BitSet::cardinality)); //The rarest module narrows the matches down quickest.
+        matches.or(lists.get(0));
+        for(int i = 1; i < lists.size() && !matches.isEmpty(); i++)
+            matches.and(lists.get(i));
+
+        return filesOf(matches);
+    }
+
+    /**
+     * Finds the profiles which enable at least one of the given modules.
+     * @param codes - module codes to look for.
+     * @return the matching profiles, in the order they were indexed.
+     */
+    public synchronized ArrayList<File> coversAny(Collection<String> codes)
+    {
+        BitSet matches = new BitSet();
+        for(String code : codes)
+        {
+            BitSet posting = postings.get(code);
+            if(posting != null)
+                matches.or(posting);
+        }
+
+        return filesOf(matches);
+    }
+
+    /**
+     * Finds the profiles which enable a module.
+     * @param code - module code to look for.
+     * @return the matching profiles, in the order they were indexed.
+     */
+    public synchronized ArrayList<File> contains(String code)
+    {
+        BitSet posting = postings.get(code);
+        return filesOf(posting == null ? new BitSet() : posting);
+    }
+
+    /**
+     * Obtains the number of profiles in the index.
+     * @return the number of profiles indexed.
+     */
+    public synchronized int size()
+    {
+        int count = 0;
+        for(Entry entry : profiles)
+        {
+            if(entry != null)
+                count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Brings the index up to date with the directory, reading only the profiles which are new or have changed.
+     * @param source - source used to read profiles, or null to read them from disk directly.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    private void update(ProfileSource source, boolean verboseOutput) throws IOException, ParseException
+    {
+        HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+        for(int i = 0; i < profiles.size(); i++)
+        {
+            if(profiles.get(i) != null)
+                numbers.put(profiles.get(i).name, i);
+        }
+
+        boolean changed = false;
+        for(File profile : ProfileCalculations.listProfiles(directory))
+        {
+            Integer number = numbers.remove(profile.getName());
+            if(number != null && profiles.get(number).matches(profile))
+                continue;
+
+            if(number != null)
+                remove(number);
+            add(profile, source == null ? ProfileCalculations.readProfileFile(profile) : source.read(profile));
+            changed = true;
+
+            if(verboseOutput)
+                System.out.println("Indexed " + profile.getPath());
+        }
+
+        for(int number : numbers.values())
+        {//Profiles which are no longer in the directory.
+            if(verboseOutput)
+                System.out.println("Removed " + profiles.get(number).name + " from the index");
+            remove(number);
+            changed = true;
+        }
+
+        if(changed)
+            save();
+    }
+
+    /**
+     * Adds a profile to the index, reusing the number of a removed profile if there is one.
+     * @param profile - the profile's file.
+     * @param contents - the profile's enabled modules.
+     */
+    private void add(File profile, Profile contents)
+    {
+        int number = profiles.indexOf(null);
+        if(number < 0)
+        {
+            number = profiles.size();
+            profiles.add(null);
+        }
+        profiles.set(number, new Entry(profile.getName(), profile.length(), profile.lastModified()));
+
+        ModuleDictionary dictionary = contents.getDictionary();
+        for(int id = contents.nextModule(0); id >= 0; id = contents.nextModule(id + 1))
+            postings.computeIfAbsent(dictionary.codeOf(id), code -> new BitSet()).set(number);
+    }
+
+    /**
+     * Removes a profile from every posting list, freeing its number.
+     * @param number - the profile's number.
+     */
+    private void remove(int number)
+    {
+        Iterator<BitSet> lists = postings.values().iterator();
+        while(lists.hasNext())
+        {
+            BitSet posting = lists.next();
+            posting.clear(number);
+            if(posting.isEmpty())
+                lists.remove();
+        }
+
+        profiles.set(number, null);
+    }
+
+    /**
+     * Converts a set of profile numbers to the profiles' files.
+     * @param numbers - profile numbers.
+     * @return an ArrayList of the profiles' files.
+     */
+    private ArrayList<File> filesOf(BitSet numbers)
+    {
+        ArrayList<File> files = new ArrayList<File>(numbers.cardinality());
+        for(int number = numbers.nextSetBit(0); number >= 0; number = numbers.nextSetBit(number + 1))
+            files.add(new File(directory, profiles.get(number).name));
+
+        return files;
+    }
+
+    /**
+     * Reads the index saved in the directory, if there is one. An index which cannot be read is ignored, and
+     * rebuilt from the profiles themselves.
+     */
+    private void load() throws IOException
+    {
+        loaded = true;
+        File file = new File(directory, FILE_NAME);
+        if(!file.isFile())
+            return;
+
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        try
+        {
+            for(byte b : MAGIC)
+            {
+                if(in.get() != b)
+                    return;
+            }
+            if(in.get() != FORMAT_VERSION)
+                return;
+
+            int profileCount = BinaryProfile.getVarint(in);
+            for(int i = 0; i < profileCount; i++)
+            {
+                String name = getString(in);
+                long length = in.getLong();
+                long lastModified = in.getLong();
+                profiles.add(name.isEmpty() ? null : new Entry(name, length, lastModified));
+            }
+
+            int moduleCount = BinaryProfile.getVarint(in);
+            for(int i = 0; i < moduleCount; i++)
+            {
+                String code = getString(in);
+                BitSet posting = new BitSet(profileCount);
+                int count = BinaryProfile.getVarint(in);
+                int number = -1;
+                for(int j = 0; j < count; j++)
+                {
+                    number += BinaryProfile.getVarint(in) + 1;
+                    posting.set(number);
+                }
+                postings.put(code, posting);
+            }
+        }
+        catch(RuntimeException e)
+        {//A damaged index is discarded.
+            profiles.clear();
+            postings.clear();
+        }
+    }
+
+    /**
+     * Saves the index to the directory, replacing any earlier copy only once the new one is complete.
+     */
+    private void save() throws IOException
+    {
+        while(!profiles.isEmpty() && profiles.get(profiles.size() - 1) == null)
+            profiles.remove(profiles.size() - 1); //Trailing numbers which are free need not be kept.
+
+        int estimate = 16;
+        for(Entry entry : profiles)
+            estimate += 21 + (entry == null ? 0 : entry.name.length() * 3);
+        for(Map.Entry<String, BitSet> posting : postings.entrySet())
+            estimate += 10 + posting.getKey().length() * 3 + posting.getValue().cardinality() * 5;
+
+        ByteBuffer out = ByteBuffer.allocate(estimate);
+        out.put(MAGIC).put((byte) FORMAT_VERSION);
+        BinaryProfile.putVarint(out, profiles.size());
+        for(Entry entry : profiles)
+        {
+            putString(out, entry == null ? "" : entry.name);
+            out.putLong(entry == null ? 0 : entry.length);
+            out.putLong(entry == null ? 0 : entry.lastModified);
+        }
+
+        BinaryProfile.putVarint(out, postings.size());
+        for(Map.Entry<String, BitSet> posting : postings.entrySet())
+        {
+            putString(out, posting.getKey());
+            BitSet numbers = posting.getValue();
+            BinaryProfile.putVarint(out, numbers.cardinality());
+            int previous = -1;
+            for(int number = numbers.nextSetBit(0); number >= 0; number = numbers.nextSetBit(number + 1))
+            {
+                BinaryProfile.putVarint(out, number - previous - 1);
+                previous = number;
+            }
+        }
+        out.flip();
+
+        BinaryProfile.writeAtomically(new File(directory, FILE_NAME), out);
+    }
+
+    private static void putString(ByteBuffer out, String text)
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        BinaryProfile.putVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in)
+    {
+        int length = BinaryProfile.getVarint(in);
+        if(length < 0 || length > in.remaining())
+            throw new IllegalArgumentException("String runs past the end of the index.");
+
+        String text = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return text;
+    }
+
+    /**
+     * The name of an indexed profile along with the size and modification time it had when it was indexed.
+     */
+    private static final class Entry
+    {
+        private final String name;
+        private final long length;
+        private final long lastModified;
+
+        private Entry(String name, long length, long lastModified)
+        {
+            this.name = name;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        private boolean matches(File profile)
+        {
+            return profile.length() == length && profile.lastModified() == lastModified;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Combines any number of profiles by merging their module codes in sorted order, so that the memory used does not
+ * grow with the number of profiles. This is used for the union, intersection or "at least k of N" of archives which
+ * are too large to hold in memory at once.
+ *
+ * Profiles are read a group at a time, and each group's sorted codes are merged using a heap holding one position per
+ * profile. Every code is merged along with the number of profiles enabling it, so a group too small to be the whole
+ * calculation is written to a temporary run file of codes and counts, and the runs are then merged in the same way
+ * until few enough remain to merge in one step. Codes which cannot reach the required count even if every profile
+ * outside a run enables them are left out of the run, so the runs of an intersection shrink as they are merged. The
+ * final merge passes each code straight to the profile being written, in sorted order.
+ *
+ * The memory used is bounded by the size of a group rather than the number of operands: at most fanIn profiles are
+ * held at once, each as the bit set it was read into, along with a single ordering of the known module codes which
+ * every profile in the group is walked through. Run files are removed as soon as they have been merged.
+ *
+ * @author Daniel Burton
+ */
+public class ProfileMerge
+{
+    static final long DEFAULT_FAN_IN = 64;
+
+    private final List<File> operands;
+    private final ProfileSource profileSource;
+    private final boolean verboseOutput;
+    private final int fanIn;
+
+    /**
+     * Creates a merge of the given profiles, which reads nothing until a result is asked for.
+     * @param operands - profiles to be merged.
+     * @param profileSource - source of profiles, or null to read them from disk.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    public ProfileMerge(List<File> operands, ProfileSource profileSource, boolean verboseOutput)
+    {
+        this.operands = operands;
+        this.profileSource = profileSource;
+        this.verboseOutput = verboseOutput;
+        this.fanIn = (int) Math.max(2, Settings.getLong("merge.fanIn", DEFAULT_FAN_IN));
+    }
+
+    /**
+     * Writes a profile enabling every module enabled by at least the given number of operands, streaming each module
+     * to the file as it is merged. Modules are listed in sorted order.
+     * @param targetFile - file location to store the profile.
+     * @param minimum - number of operands which must enable a module; 1 for a union, or every operand for an
+     *                intersection.
+     * @return the number of modules written.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that an operand cannot be parsed.
+     */
+    public int writeTo(File targetFile, int minimum) throws IOException, ParseException
+    {
+        try(ProfileWriter writer = new ProfileWriter(targetFile))
+        {
+            writer.beginList("EnabledList");
+            int written = merge(minimum, (code, count) -> writer.writeModule(code));
+            writer.endList();
+            writer.beginList("DisabledList");
+            writer.endList();
+            writer.writeOperation(ProfileDocument.DEFAULT_OPERATION);
+            writer.commit();
+            return written;
+        }
+    }
+
+    /**
+     * Creates a profile in memory enabling every module enabled by at least the given number of operands.
+     * @param minimum - number of operands which must enable a module.
+     * @return a Profile containing the result.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that an operand cannot be parsed.
+     */
+    public Profile collect(int minimum) throws IOException, ParseException
+    {
+        Profile result = new Profile();
+        merge(minimum, (code, count) -> result.add(code));
+        return result;
+    }
+
+    /**
+     * Merges every operand, passing each module enabled by at least the given number of operands to a sink.
+     * @param minimum - number of operands which must enable a module.
+     * @param sink - receives each module, in sorted order.
+     * @return the number of modules passed to the sink.
+     */
+    private int merge(int minimum, ModuleSink sink) throws IOException, ParseException
+    {
+        if(operands.size() <= fanIn)
+            return mergeProfiles(operands, minimum, sink);
+
+        ArrayList<Run> runs = new ArrayList<Run>();
+        try
+        {
+            for(int start = 0; start < operands.size(); start += fanIn)
+            {
+                List<File> group = operands.subList(start, Math.min(start + fanIn, operands.size()));
+                Run run = Run.create(group.size());
+                runs.add(run);
+                try(RunWriter out = new RunWriter(run))
+                {
+                    mergeProfiles(group, reachable(minimum, group.size()), out);
+                }
+            }
+
+            if(verboseOutput)
+                System.out.println("Merged " + operands.size() + " profiles into " + runs.size() + " runs.");
+
+            while(runs.size() > fanIn)
+            {//Each pass merges the runs a group at a time, until one more merge can complete the calculation.
+                ArrayList<Run> merged = new ArrayList<Run>();
+                try
+                {
+                    for(int start = 0; start < runs.size(); start += fanIn)
+                    {
+                        List<Run> group = runs.subList(start, Math.min(start + fanIn, runs.size()));
+                        int covered = 0;
+                        for(Run run : group)
+                            covered += run.operands;
+
+                        Run run = Run.create(covered);
+                        merged.add(run);
+                        try(RunWriter out = new RunWriter(run))
+                        {
+                            mergeRuns(group, reachable(minimum, covered), out);
+                        }
+                    }
+                }
+                finally
+                {
+                    Run.deleteAll(runs);
+                    runs = merged;
+                }
+
+                if(verboseOutput)
+                    System.out.println("Merged runs down to " + runs.size() + " runs.");
+            }
+
+            return mergeRuns(runs, minimum, sink);
+        }
+        finally
+        {
+            Run.deleteAll(runs);
+        }
+    }
+
+    /**
+     * Establishes the count a module must reach among some of the operands to still be able to reach the minimum
+     * once every other operand has been merged.
+     * @param minimum - number of operands which must enable a module.
+     * @param covered - number of operands merged so far.
+     * @return the smallest count worth keeping, at least 1.
+     */
+    private int reachable(int minimum, int covered)
+    {
+        return Math.max(1, minimum - (operands.size() - covered));
+    }
+
+    /**
+     * Reads a group of profiles and merges their sorted codes.
+     * @param group - profiles to read.
+     * @param minimum - number of profiles in the group which must enable a module.
+     * @param sink - receives each module with the number of profiles enabling it.
+     * @return the number of modules passed to the sink.
+     */
+    private int mergeProfiles(List<File> group, int minimum, ModuleSink sink) throws IOException, ParseException
+    {
+        ArrayList<Profile> profiles = new ArrayList<Profile>(group.size());
+        for(File operand : group)
+        {
+            profiles.add(profileSource == null ? ProfileCalculations.readProfileFile(operand) : profileSource.read(operand));
+            if(verboseOutput)
+                System.out.println("Process completed for profile: " + operand.getPath());
+        }
+
+        IdentityHashMap<ModuleDictionary, int[]> orders = new IdentityHashMap<ModuleDictionary, int[]>();
+        ArrayList<Cursor> cursors = new ArrayList<Cursor>(group.size());
+        for(Profile profile : profiles)
+        {//Ordered once the whole group is read, so that every code the group interned is included.
+            int[] order = orders.computeIfAbsent(profile.getDictionary(), ProfileMerge::codeOrder);
+            cursors.add(new ProfileCursor(profile, order));
+        }
+
+        return mergeCursors(cursors, minimum, sink);
+    }
+
+    /**
+     * Orders every code known to a dictionary, so that profiles using it can be walked in sorted order without
+     * listing their own codes.
+     * @param dictionary - the dictionary to order.
+     * @return the dictionary's identifiers, in the sorted order of their codes.
+     */
+    private static int[] codeOrder(ModuleDictionary dictionary)
+    {
+        String[] codes = new String[dictionary.size()];
+        for(int id = 0; id < codes.length; id++)
+            codes[id] = dictionary.codeOf(id);
+        Arrays.sort(codes);
+
+        int[] order = new int[codes.length];
+        for(int i = 0; i < codes.length; i++)
+            order[i] = dictionary.lookup(codes[i]);
+
+        return order;
+    }
+
+    /**
+     * Merges a group of run files.
+     * @param group - runs to merge.
+     * @param minimum - total count a module must reach across the runs.
+     * @param sink - receives each module with its total count.
+     * @return the number of modules passed to the sink.
+     */
+    private static int mergeRuns(List<Run> group, int minimum, ModuleSink sink) throws IOException, ParseException
+    {
+        ArrayList<RunCursor> cursors = new ArrayList<RunCursor>(group.size());
+        try
+        {
+            for(Run run : group)
+                cursors.add(new RunCursor(run));
+
+            return mergeCursors(cursors, minimum, sink);
+        }
+        finally
+        {
+            for(RunCursor cursor : cursors)
+                cursor.close();
+        }
+    }
+
+    /**
+     * Merges sorted cursors using a heap ordered by each cursor's current code, adding together the counts of every
+     * cursor at the same code.
+     * @param cursors - cursors which have not yet been advanced.
+     * @param minimum - total count a module must reach to be passed to the sink.
+     * @param sink - receives each module with its total count.
+     * @return the number of modules passed to the sink.
+     */
+    private static int mergeCursors(List<? extends Cursor> cursors, int minimum, ModuleSink sink) throws IOException, ParseException
+    {
+        long started = Statistics.start();
+        PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(1, cursors.size()), (a, b) -> a.code.compareTo(b.code));
+        for(Cursor cursor : cursors)
+        {
+            if(cursor.advance())
+                heap.add(cursor);
+        }
+
+        int passed = 0;
+        while(!heap.isEmpty())
+        {
+            String code = heap.peek().code;
+            int count = 0;
+            while(!heap.isEmpty() && heap.peek().code.equals(code))
+            {
+                Cursor cursor = heap.poll();
+                count += cursor.count;
+                if(cursor.advance())
+                    heap.add(cursor);
+            }
+
+            if(count >= minimum)
+            {
+                sink.accept(code, count);
+                passed++;
+            }
+        }
+
+        Statistics.end(Statistics.Phase.OPERATION, started);
+        return passed;
+    }
+
+    /**
+     * Receives the modules produced by a merge.
+     */
+    private interface ModuleSink
+    {
+        void accept(String code, int count) throws IOException, ParseException;
+    }
+
+    /**
+     * A position within a sorted sequence of modules, each with the number of profiles enabling it.
+     */
+    private static abstract class Cursor
+    {
+        String code = null;
+        int count = 0;
+
+        /**
+         * Moves to the next module in the sequence.
+         * @return false if the sequence has ended.
+         */
+        abstract boolean advance() throws IOException;
+    }
+
+    private static final class ProfileCursor extends Cursor
+    {
+        private final Profile profile;
+        private final int[] order;
+        private int position = 0;
+
+        private ProfileCursor(Profile profile, int[] order)
+        {
+            this.profile = profile;
+            this.order = order;
+        }
+
+        @Override
+        boolean advance()
+        {
+            while(position < order.length)
+            {
+                int id = order[position++];
+                if(profile.containsId(id))
+                {
+                    code = profile.getDictionary().codeOf(id);
+                    count = 1;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private static final class RunCursor extends Cursor implements Closeable
+    {
+        private final DataInputStream in;
+
+        private RunCursor(Run run) throws IOException
+        {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file.toPath()), 1 << 16));
+        }
+
+        @Override
+        boolean advance() throws IOException
+        {
+            if(!in.readBoolean())
+                return false;
+
+            code = in.readUTF();
+            count = in.readInt();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a run file, each module being preceded by a marker so that the end of the run can be recognised.
+     */
+    private static final class RunWriter implements ModuleSink, Closeable
+    {
+        private final DataOutputStream out;
+
+        private RunWriter(Run run) throws IOException
+        {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run.file.toPath()), 1 << 16));
+        }
+
+        @Override
+        public void accept(String code, int count) throws IOException
+        {
+            out.writeBoolean(true);
+            out.writeUTF(code);
+            out.writeInt(count);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.writeBoolean(false);
+            out.close();
+        }
+    }
+
+    /**
+     * A temporary file of sorted modules and counts, covering some number of operands.
+     */
+    private static final class Run
+    {
+        private final File file;
+        private final int operands;
+
+        private Run(File file, int operands)
+        {
+            this.file = file;
+            this.operands = operands;
+        }
+
+        private static Run create(int operands) throws IOException
+        {
+            return new Run(File.createTempFile("kpc-merge", ".run"), operands); //Removed by deleteAll once merged.
+        }
+
+        private static void deleteAll(List<Run> runs)
+        {
+            for(Run run : runs)
+                run.file.delete();
+        }
+    }
+}
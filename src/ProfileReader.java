@@ -0,0 +1,498 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Pull parser which extracts the enabled list from a profile JSON in a single pass over the file.
+ * Module codes are passed straight into a Profile as they are read, and every other key in the profile is skipped
+ * without being materialised, so no intermediate JSON tree is built.
+ *
+ * @author Daniel Burton
+ */
+public class ProfileReader implements Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ModuleDictionary dictionary;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private byte[] stringBytes = new byte[64];
+    private long position = 0;
+    private long bytesRead = 0;
+    private long readNanos = 0;
+
+    /**
+     * Opens a profile for reading against the session's shared dictionary.
+     * @param profile - JSON profile to be read.
+     * @throws IOException - in the event that the file cannot be opened.
+     */
+    public ProfileReader(File profile) throws IOException
+    {
+        this(profile, ModuleDictionary.getShared());
+    }
+
+    /**
+     * Opens a profile for reading against the given dictionary.
+     * @param profile - JSON profile to be read.
+     * @param dictionary - dictionary used to assign identifiers to the module codes read.
+     * @throws IOException - in the event that the file cannot be opened.
+     */
+    public ProfileReader(File profile, ModuleDictionary dictionary) throws IOException
+    {
+        this.channel = FileChannel.open(profile.toPath(), StandardOpenOption.READ);
+        this.dictionary = dictionary;
+        buffer.limit(0);
+    }
+
+    /**
+     * Reads the modules the profile enables: those in its enabled list (or every module in the repository if it has
+     * none) less those in its disabled list.
+     * @return a Profile containing every module the profile enables.
+     * @throws IOException - in the event of a standard file-reading error.
+     * @throws ParseException - in the event that the file is not a valid profile JSON.
+     */
+    public Profile readModules() throws IOException, ParseException
+    {
+        long started = Statistics.start();
+        Profile enabled = new Profile(dictionary);
+        Profile disabled = new Profile(dictionary);
+        int found = readObject(enabled, disabled, null);
+        recordPhases(started);
+
+        Profile modules = new ProfileDocument((found & 1) != 0 ? enabled : null, (found & 2) != 0 ? disabled : null, null).getModules();
+        Statistics.countRead(modules);
+        return modules;
+    }
+
+    /**
+     * Reads the profile's enabled list, disabled list and operation, such as when converting it to another format.
+     * @return a ProfileDocument holding every part of the profile which was present.
+     * @throws IOException - in the event of a standard file-reading error.
+     * @throws ParseException - in the event that the file is not a valid profile JSON.
+     */
+    public ProfileDocument readDocument() throws IOException, ParseException
+    {
+        Profile enabled = new Profile(dictionary);
+        Profile disabled = new Profile(dictionary);
+        Object[] operation = new Object[1];
+
+        long started = Statistics.start();
+        int found = readObject(enabled, disabled, operation);
+        recordPhases(started);
+        Statistics.countRead(enabled);
+
+        return new ProfileDocument((found & 1) != 0 ? enabled : null, (found & 2) != 0 ? disabled : null, operation[0]);
+    }
+
+    /**
+     * Records the time spent reading the file and, separately, the rest of the time spent parsing it.
+     * @param started - the time parsing began, as returned by Statistics.start.
+     */
+    private void recordPhases(long started)
+    {
+        Statistics.record(Statistics.Phase.READ, readNanos, bytesRead);
+        Statistics.record(Statistics.Phase.PARSE, System.nanoTime() - started - readNanos, 0);
+    }
+
+    /**
+     * Reads the profile's top-level object, keeping the parts which have somewhere to go and skipping the rest.
+     * @param enabled - Profile to add the enabled list to.
+     * @param disabled - Profile to add the disabled list to, or null to skip it.
+     * @param operation - single-element array to store the operation in, or null to skip it.
+     * @return flags showing which lists were present and not null: 1 for the enabled list and 2 for the disabled list.
+     */
+    private int readObject(Profile enabled, Profile disabled, Object[] operation) throws IOException, ParseException
+    {
+        int found = 0;
+
+        skipByteOrderMark();
+        expect('{');
+        int next = nextToken();
+        while(next != '}')
+        {
+            if(next != '"')
+                throw unexpected(next);
+
+            String key = readString();
+            expect(':');
+
+            if(key.equals("EnabledList"))
+                found |= readModuleArray(enabled) ? 1 : 0;
+            else if(key.equals("DisabledList") && disabled != null)
+                found |= readModuleArray(disabled) ? 2 : 0;
+            else if(key.equals("Operation") && operation != null)
+                operation[0] = readScalar(nextToken());
+            else
+                skipValue(nextToken());
+
+            next = nextToken();
+            if(next == ',')
+                next = nextToken();
+            else if(next != '}')
+                throw unexpected(next);
+        }
+
+        return found;
+    }
+
+    /**
+     * Closes the underlying file.
+     * @throws IOException - in the event of a standard I/O error.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Reads an array of module code strings into a profile.
+     * @param profile - Profile the module codes should be added to.
+     * @return false if the list was given as null rather than as an array.
+     */
+    private boolean readModuleArray(Profile profile) throws IOException, ParseException
+    {
+        int next = nextToken();
+        if(next == 'n')
+        {//A null list counts as missing: a null EnabledList enables every module, and a null DisabledList disables none.
+            skipValue(next);
+            return false;
+        }
+        else if(next != '[')
+            throw unexpected(next);
+
+        next = nextToken();
+        while(next != ']')
+        {
+            if(next != '"')
+                throw unexpected(next);
+
+            profile.add(readString());
+
+            next = nextToken();
+            if(next == ',')
+                next = nextToken();
+            else if(next != ']')
+                throw unexpected(next);
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads a string, number, true, false or null value.
+     * @param first - the first character of the value, which has already been consumed.
+     * @return a String, BigDecimal or Boolean, or null if the value was null.
+     */
+    private Object readScalar(int first) throws IOException, ParseException
+    {
+        if(first == '"')
+            return readString();
+
+        StringBuilder text = new StringBuilder();
+        text.append((char) first);
+        int c = peek();
+        while(c != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c))
+        {
+            text.append((char) read());
+            c = peek();
+        }
+
+        switch(text.toString())
+        {
+            case "true" : return Boolean.TRUE;
+            case "false" : return Boolean.FALSE;
+            case "null" : return null;
+            default :
+                try
+                {//Numbers are kept exactly as written, so that converting a profile does not change its operation.
+                    return new BigDecimal(text.toString());
+                }
+                catch(NumberFormatException e)
+                {
+                    throw unexpected(first);
+                }
+        }
+    }
+
+    /**
+     * Skips over a JSON value of any type without storing it.
+     * @param first - the first character of the value, which has already been consumed.
+     */
+    private void skipValue(int first) throws IOException, ParseException
+    {
+        if(first == '"')
+        {
+            skipString();
+            return;
+        }
+
+        if(first != '{' && first != '[')
+        {//Numbers and literals run until the next structural character.
+            if(first == -1 || first == ',' || first == '}' || first == ']' || first == ':')
+                throw unexpected(first);
+            int c = peek();
+            while(c != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c))
+            {
+                read();
+                c = peek();
+            }
+            return;
+        }
+
+        int depth = 1;
+        while(depth > 0)
+        {//Nested objects and arrays are skipped by tracking their depth, taking care to ignore brackets within strings.
+            int c = read();
+            if(c == -1)
+                throw unexpected(c);
+            else if(c == '"')
+                skipString();
+            else if(c == '{' || c == '[')
+                depth++;
+            else if(c == '}' || c == ']')
+                depth--;
+        }
+    }
+
+    /**
+     * Skips the remainder of a string whose opening quote has already been consumed.
+     */
+    private void skipString() throws IOException, ParseException
+    {
+        int c = read();
+        while(c != '"')
+        {
+            if(c == -1)
+                throw unexpected(c);
+            if(c == '\\')
+                read();
+            c = read();
+        }
+    }
+
+    /**
+     * Reads the remainder of a string whose opening quote has already been consumed, resolving any escape sequences.
+     * @return the decoded string.
+     */
+    private String readString() throws IOException, ParseException
+    {
+        int length = 0;
+        int c = read();
+        while(c != '"')
+        {
+            if(c == -1)
+                throw unexpected(c);
+
+            if(length + 4 > stringBytes.length)
+            {
+                byte[] larger = new byte[stringBytes.length * 2];
+                System.arraycopy(stringBytes, 0, larger, 0, length);
+                stringBytes = larger;
+            }
+
+            if(c != '\\')
+            {//Bytes are kept in their UTF-8 form and only decoded once the whole string has been read.
+                stringBytes[length++] = (byte) c;
+            }
+            else
+            {
+                c = read();
+                switch(c)
+                {
+                    case '"' : case '\\' : case '/' : stringBytes[length++] = (byte) c;break;
+                    case 'b' : stringBytes[length++] = '\b';break;
+                    case 'f' : stringBytes[length++] = '\f';break;
+                    case 'n' : stringBytes[length++] = '\n';break;
+                    case 'r' : stringBytes[length++] = '\r';break;
+                    case 't' : stringBytes[length++] = '\t';break;
+                    case 'u' : length = appendCodePoint(readUnicodeEscape(), length);break;
+                    default : throw unexpected(c);
+                }
+            }
+            c = read();
+        }
+
+        return new String(stringBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the hexadecimal part of a \\u escape sequence, combining it with a following low surrogate if necessary.
+     * @return the Unicode code point represented by the escape sequence.
+     */
+    private int readUnicodeEscape() throws IOException, ParseException
+    {
+        int value = readHexQuad();
+        if(Character.isHighSurrogate((char) value) && peek() == '\\')
+        {
+            read();
+            int c = read();
+            if(c != 'u')
+                throw unexpected(c);
+            int low = readHexQuad();
+            if(Character.isLowSurrogate((char) low))
+                return Character.toCodePoint((char) value, (char) low);
+            return '?';
+        }
+
+        return Character.isSurrogate((char) value) ? '?' : value;
+    }
+
+    /**
+     * Reads four hexadecimal digits.
+     * @return the value of the digits.
+     */
+    private int readHexQuad() throws IOException, ParseException
+    {
+        int value = 0;
+        for(int i = 0; i < 4; i++)
+        {
+            int c = read();
+            int digit = Character.digit(c, 16);
+            if(c == -1 || digit < 0)
+                throw unexpected(c);
+            value = (value << 4) | digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * Appends the UTF-8 encoding of a code point to the string buffer.
+     * @param codePoint - code point to encode.
+     * @param length - current length of the string buffer.
+     * @return the new length of the string buffer.
+     */
+    private int appendCodePoint(int codePoint, int length)
+    {
+        if(codePoint < 0x80)
+        {
+            stringBytes[length++] = (byte) codePoint;
+        }
+        else if(codePoint < 0x800)
+        {
+            stringBytes[length++] = (byte) (0xC0 | (codePoint >> 6));
+            stringBytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        else if(codePoint < 0x10000)
+        {
+            stringBytes[length++] = (byte) (0xE0 | (codePoint >> 12));
+            stringBytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            stringBytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        else
+        {
+            stringBytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+            stringBytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            stringBytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            stringBytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+
+        return length;
+    }
+
+    /**
+     * Skips a UTF-8 byte order mark at the start of the file, as written by some text editors.
+     */
+    private void skipByteOrderMark() throws IOException
+    {
+        if(peek() == 0xEF)
+        {
+            read();
+            read();
+            read();
+        }
+    }
+
+    /**
+     * Consumes the next non-whitespace character, which must be the one given.
+     * @param expected - the character which must appear next.
+     */
+    private void expect(char expected) throws IOException, ParseException
+    {
+        int c = nextToken();
+        if(c != expected)
+            throw unexpected(c);
+    }
+
+    /**
+     * Consumes whitespace and returns the first character after it.
+     * @return the next non-whitespace character, or -1 at the end of the file.
+     */
+    private int nextToken() throws IOException
+    {
+        int c = read();
+        while(isWhitespace(c))
+            c = read();
+
+        return c;
+    }
+
+    private static boolean isWhitespace(int c)
+    {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /**
+     * Consumes a single byte from the file.
+     * @return the byte as an unsigned value, or -1 at the end of the file.
+     */
+    private int read() throws IOException
+    {
+        if(!buffer.hasRemaining() && !fill())
+            return -1;
+
+        position++;
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Obtains the next byte from the file without consuming it.
+     * @return the byte as an unsigned value, or -1 at the end of the file.
+     */
+    private int peek() throws IOException
+    {
+        if(!buffer.hasRemaining() && !fill())
+            return -1;
+
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    /**
+     * Refills the buffer from the file channel.
+     * @return false if the end of the file has been reached.
+     */
+    private boolean fill() throws IOException
+    {
+        long started = System.nanoTime();
+        buffer.clear();
+        int read = channel.read(buffer);
+        while(read == 0)
+            read = channel.read(buffer);
+        buffer.flip();
+        readNanos += System.nanoTime() - started;
+        bytesRead += Math.max(read, 0);
+
+        return read > 0;
+    }
+
+    /**
+     * Creates an exception describing an unexpected character at the current position.
+     * @param c - the unexpected character, or -1 if the file ended unexpectedly.
+     * @return a ParseException to be thrown.
+     */
+    private ParseException unexpected(int c)
+    {
+        if(c == -1)
+            return new ParseException((int) position, ParseException.ERROR_UNEXPECTED_TOKEN, "END OF FILE");
+
+        return new ParseException((int) position, ParseException.ERROR_UNEXPECTED_CHAR, (char) c);
+    }
+}
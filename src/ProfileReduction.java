@@ -0,0 +1,93 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fork-join task which reads a range of profile operands and combines them with a tree reduction.
+ * Union and intersection are both associative, so each half of the range is reduced independently and the two
+ * results are combined, allowing profiles to be read and parsed on every available core.
+ *
+ * @author Daniel Burton
+ */
+public class ProfileReduction extends RecursiveTask<Profile>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final ProfileCalculations calculations;
+    private final List<File> operands;
+    private final boolean intersect;
+    private final AtomicBoolean emptyIntersection;
+
+    /**
+     * Creates a reduction over a list of profile operands.
+     * @param calculations - the calculation whose profile reading should be used for each operand.
+     * @param operands - profiles to be combined.
+     * @param intersect - true to compute the intersection of the operands, false to compute their union.
+     */
+    public ProfileReduction(ProfileCalculations calculations, List<File> operands, boolean intersect)
+    {
+        this(calculations, operands, intersect, new AtomicBoolean(false));
+    }
+
+    private ProfileReduction(ProfileCalculations calculations, List<File> operands, boolean intersect, AtomicBoolean emptyIntersection)
+    {
+        this.calculations = calculations;
+        this.operands = operands;
+        this.intersect = intersect;
+        this.emptyIntersection = emptyIntersection;
+    }
+
+    /**
+     * Reduces this task's range of operands, splitting it in half until a single profile remains.
+     * @return the union or intersection of every operand in the range.
+     * @throws CompletionException - wrapping any IOException or ParseException raised while reading a profile.
+     */
+    @Override
+    protected Profile compute()
+    {
+        if(intersect && emptyIntersection.get())
+            return new Profile(); //Another branch has already found that the intersection is empty.
+
+        if(operands.size() == 1)
+        {
+            try
+            {
+                Profile profile = calculations.readProfile(operands.get(0)).copy(); //Profiles are combined in place.
+                if(intersect && profile.isEmpty())
+                    emptyIntersection.set(true);
+                return profile;
+            }
+            catch(IOException | ParseException e)
+            {
+                throw new CompletionException(e);
+            }
+        }
+
+        int middle = operands.size() / 2;
+        ProfileReduction left = new ProfileReduction(calculations, operands.subList(0, middle), intersect, emptyIntersection);
+        ProfileReduction right = new ProfileReduction(calculations, operands.subList(middle, operands.size()), intersect, emptyIntersection);
+        left.fork();
+        Profile result = right.compute();
+        Profile other = left.join();
+
+        long started = Statistics.start();
+        if(intersect)
+        {
+            result.retainAll(other);
+            if(result.isEmpty())
+                emptyIntersection.set(true);
+        }
+        else
+        {
+            result.addAll(other);
+        }
+        Statistics.end(Statistics.Phase.OPERATION, started);
+
+        return result;
+    }
+}
@@ -0,0 +1,306 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MinHash sketches of every profile in a directory, used to estimate how similar two profiles are without reading
+ * either of them.
+ *
+ * A profile's sketch holds, for each of 128 hash functions, the smallest hash of any module code it enables. The
+ * fraction of positions at which two sketches agree estimates the Jaccard similarity of the two profiles (the
+ * number of modules they share divided by the number enabled by either). Module codes are hashed from their text, so
+ * sketches do not depend on the session and can be saved. They are saved in the directory as profiles.kpcs along
+ * with each profile's size and modification time, and only profiles which were added or changed are sketched again.
+ *
+ * @author Daniel Burton
+ */
+public class ProfileSketches
+{
+    static final String FILE_NAME = "profiles.kpcs";
+    static final int SKETCH_SIZE = 128;
+    private static final byte[] MAGIC = {'K', 'P', 'C', 'S'};
+    private static final int FORMAT_VERSION = 1;
+    private static final ConcurrentHashMap<String, ProfileSketches> OPEN = new ConcurrentHashMap<String, ProfileSketches>();
+
+    private final File directory;
+    private final ArrayList<Sketch> sketches = new ArrayList<Sketch>();
+    private boolean loaded = false;
+
+    /**
+     * Creates an empty set of sketches for a directory.
+     * @param directory - directory of profiles being sketched.
+     */
+    private ProfileSketches(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Obtains the sketches of a directory's profiles, sketching any profiles which were added or changed since the
+     * sketches were last saved. The sketches are kept in memory for the rest of the session.
+     * @param directory - directory of profiles.
+     * @param source - source used to read profiles which need sketching, or null to read them from disk directly.
+     * @param verboseOutput - more process details are shown to the user if true.
+     * @return up to date ProfileSketches.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     */
+    public static ProfileSketches open(File directory, ProfileSource source, boolean verboseOutput) throws IOException, ParseException
+    {
+        File canonical = directory.getCanonicalFile();
+        ProfileSketches sketches = OPEN.computeIfAbsent(canonical.getPath(), path -> new ProfileSketches(canonical));
+
+        synchronized(sketches)
+        {
+            if(!sketches.loaded)
+                sketches.load();
+            sketches.update(source, verboseOutput);
+        }
+
+        return sketches;
+    }
+
+    /**
+     * Obtains the sketch of every profile in the directory. The list must not be modified.
+     * @return an ArrayList of sketches, one per profile.
+     */
+    public synchronized ArrayList<Sketch> getSketches()
+    {
+        return new ArrayList<Sketch>(sketches);
+    }
+
+    /**
+     * Calculates the MinHash sketch of a profile.
+     * @param profile - the profile to sketch.
+     * @return an array of SKETCH_SIZE minimum hashes.
+     */
+    public static int[] sketch(Profile profile)
+    {
+        int[] minimums = new int[SKETCH_SIZE];
+        Arrays.fill(minimums, Integer.MAX_VALUE);
+
+        ModuleDictionary dictionary = profile.getDictionary();
+        for(int id = profile.nextModule(0); id >= 0; id = profile.nextModule(id + 1))
+        {
+            long base = hashCode(dictionary.codeOf(id));
+            for(int i = 0; i < SKETCH_SIZE; i++)
+            {
+                int hash = (int) (mix(base + (i + 1) * 0x9E3779B97F4A7C15L) >>> 32);
+                if(hash < minimums[i])
+                    minimums[i] = hash;
+            }
+        }
+
+        return minimums;
+    }
+
+    /**
+     * Estimates the Jaccard similarity of two profiles from their sketches.
+     * @param first - sketch of the first profile.
+     * @param second - sketch of the second profile.
+     * @return the fraction of the sketches' positions which agree.
+     */
+    public static double estimate(int[] first, int[] second)
+    {
+        int agreeing = 0;
+        for(int i = 0; i < SKETCH_SIZE; i++)
+        {
+            if(first[i] == second[i])
+                agreeing++;
+        }
+
+        return agreeing / (double) SKETCH_SIZE;
+    }
+
+    /**
+     * Brings the sketches up to date with the directory, reading only the profiles which are new or have changed.
+     * @param source - source used to read profiles, or null to read them from disk directly.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    private void update(ProfileSource source, boolean verboseOutput) throws IOException, ParseException
+    {
+        HashMap<String, Sketch> previous = new HashMap<String, Sketch>();
+        for(Sketch sketch : sketches)
+            previous.put(sketch.name, sketch);
+
+        ArrayList<Sketch> current = new ArrayList<Sketch>();
+        boolean changed = false;
+        for(File profile : ProfileCalculations.listProfiles(directory))
+        {
+            Sketch sketch = previous.remove(profile.getName());
+            if(sketch == null || sketch.length != profile.length() || sketch.lastModified != profile.lastModified())
+            {
+                Profile contents = source == null ? ProfileCalculations.readProfileFile(profile) : source.read(profile);
+                sketch = new Sketch(profile.getName(), profile.length(), profile.lastModified(), contents.size(), sketch(contents));
+                changed = true;
+
+                if(verboseOutput)
+                    System.out.println("Sketched " + profile.getPath());
+            }
+            current.add(sketch);
+        }
+
+        changed |= !previous.isEmpty(); //Some profiles have been removed.
+        sketches.clear();
+        sketches.addAll(current);
+
+        if(changed)
+            save();
+    }
+
+    /**
+     * Reads the sketches saved in the directory, if there are any. Sketches which cannot be read are ignored, and
+     * calculated again from the profiles themselves.
+     */
+    private void load() throws IOException
+    {
+        loaded = true;
+        File file = new File(directory, FILE_NAME);
+        if(!file.isFile())
+            return;
+
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        try
+        {
+            for(byte b : MAGIC)
+            {
+                if(in.get() != b)
+                    return;
+            }
+            if(in.get() != FORMAT_VERSION || in.getInt() != SKETCH_SIZE)
+                return;
+
+            int count = in.getInt();
+            for(int i = 0; i < count; i++)
+            {
+                byte[] name = new byte[in.getShort() & 0xFFFF];
+                in.get(name);
+                long length = in.getLong();
+                long lastModified = in.getLong();
+                int size = in.getInt();
+                int[] minimums = new int[SKETCH_SIZE];
+                for(int j = 0; j < SKETCH_SIZE; j++)
+                    minimums[j] = in.getInt();
+                sketches.add(new Sketch(new String(name, StandardCharsets.UTF_8), length, lastModified, size, minimums));
+            }
+        }
+        catch(RuntimeException e)
+        {//Damaged sketches are discarded.
+            sketches.clear();
+        }
+    }
+
+    /**
+     * Saves the sketches to the directory, replacing any earlier copy only once the new one is complete.
+     */
+    private void save() throws IOException
+    {
+        ArrayList<byte[]> names = new ArrayList<byte[]>(sketches.size());
+        int total = MAGIC.length + 9;
+        for(Sketch sketch : sketches)
+        {
+            byte[] name = sketch.name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            total += 2 + name.length + 20 + 4 * SKETCH_SIZE;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(total);
+        out.put(MAGIC).put((byte) FORMAT_VERSION).putInt(SKETCH_SIZE).putInt(sketches.size());
+        for(int i = 0; i < sketches.size(); i++)
+        {
+            Sketch sketch = sketches.get(i);
+            out.putShort((short) names.get(i).length).put(names.get(i));
+            out.putLong(sketch.length).putLong(sketch.lastModified).putInt(sketch.size);
+            for(int minimum : sketch.minimums)
+                out.putInt(minimum);
+        }
+        out.flip();
+
+        BinaryProfile.writeAtomically(new File(directory, FILE_NAME), out);
+    }
+
+    /**
+     * Hashes a module code's text to 64 bits, in the same way in every session.
+     * @param code - module code to hash.
+     * @return the code's hash.
+     */
+    private static long hashCode(String code)
+    {
+        long hash = 0xCBF29CE484222325L;
+        for(int i = 0; i < code.length(); i++)
+        {
+            hash ^= code.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+
+        return mix(hash);
+    }
+
+    /**
+     * Scrambles the bits of a 64-bit value, so that each hash function behaves like an independent permutation.
+     * @param value - value to scramble.
+     * @return the scrambled value.
+     */
+    private static long mix(long value)
+    {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * The sketch of a single profile, along with the size and modification time the profile had when sketched.
+     */
+    public static final class Sketch
+    {
+        private final String name;
+        private final long length;
+        private final long lastModified;
+        private final int size;
+        private final int[] minimums;
+
+        private Sketch(String name, long length, long lastModified, int size, int[] minimums)
+        {
+            this.name = name;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.minimums = minimums;
+        }
+
+        /**
+         * Obtains the name of the sketched profile within its directory.
+         * @return the profile's file name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Obtains the number of modules the sketched profile enables.
+         * @return the number of enabled modules.
+         */
+        public int getSize()
+        {
+            return size;
+        }
+
+        /**
+         * Obtains the sketch's minimum hashes.
+         * @return an array of SKETCH_SIZE minimum hashes, which must not be modified.
+         */
+        public int[] getMinimums()
+        {
+            return minimums;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Supplies the contents of profile operands to a calculation.
+ * By default profiles are read from disk, but a source allows them to be provided some other way, such as from
+ * results held in memory.
+ *
+ * @author Daniel Burton
+ */
+public interface ProfileSource
+{
+    /**
+     * Obtains the enabled modules of a profile operand. The Profile returned may be shared, so it must not be modified.
+     * @param profile - the operand as given to the calculation.
+     * @return a Profile containing the operand's enabled modules.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile JSON cannot be parsed.
+     */
+    Profile read(File profile) throws IOException, ParseException;
+
+    /**
+     * Informs the source that a profile has just been written, in case it is used as an operand later.
+     * @param profile - location the profile was written to.
+     * @param contents - the enabled modules which were written, which must not be modified afterwards.
+     * @throws IOException - in the event of a standard I/O error.
+     */
+    default void stored(File profile, Profile contents) throws IOException
+    {
+    }
+}
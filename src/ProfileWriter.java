@@ -0,0 +1,245 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes profile JSONs by streaming module codes straight to a buffered UTF-8 file, without building the whole
+ * document in memory first.
+ *
+ * The profile is written to a temporary file alongside the target, which only replaces the target once it is complete
+ * and has been flushed to disk. Every writer has its own temporary file, so writers of the same target in different
+ * threads, such as two server clients, never write over each other's. If writing fails part of the way through, the
+ * target is left untouched rather than truncated, so the mod selector never reads a half-written profile.
+ *
+ * @author Daniel Burton
+ */
+public class ProfileWriter implements Closeable
+{
+    private final Path target;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final Writer out;
+    private boolean firstKey = true;
+    private boolean firstModule = true;
+    private boolean committed = false;
+    private final long started = Statistics.start();
+    private int modulesWritten = 0;
+
+    /**
+     * Begins writing a profile, which will not appear at the target location until it is committed.
+     * @param targetFile - file location to store the profile.
+     * @throws IOException - in the event that the temporary file cannot be created.
+     */
+    public ProfileWriter(File targetFile) throws IOException
+    {
+        File absolute = targetFile.getAbsoluteFile();
+        target = absolute.toPath();
+        temporary = temporaryFor(target);
+
+        channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 1 << 16));
+        out.write('{');
+    }
+
+    /**
+     * Chooses a temporary file alongside a target which is not used by any other writer. The file is not created, and
+     * should be opened with CREATE_NEW so that a clash fails rather than being shared.
+     * @param target - location the finished file will be moved to.
+     * @return the path of the temporary file.
+     */
+    static Path temporaryFor(Path target)
+    {
+        return target.resolveSibling("." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+    }
+
+    /**
+     * Writes every part of a profile which is present in a document.
+     * @param targetFile - file location to store the profile.
+     * @param document - the parts of the profile to write.
+     * @param sorted - true if the modules should be listed in sorted order rather than dictionary order.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    public static void write(File targetFile, ProfileDocument document, boolean sorted) throws IOException
+    {
+        try(ProfileWriter writer = new ProfileWriter(targetFile))
+        {
+            if(document.getEnabled() != null)
+                writer.writeList("EnabledList", document.getEnabled(), sorted);
+            if(document.getDisabled() != null)
+                writer.writeList("DisabledList", document.getDisabled(), sorted);
+            if(document.getOperation() != null)
+                writer.writeOperation(document.getOperation());
+            writer.commit();
+        }
+    }
+
+    /**
+     * Writes a complete list of modules under the given key.
+     * @param key - name of the list, such as EnabledList.
+     * @param modules - modules to write.
+     * @param sorted - true if the modules should be listed in sorted order rather than dictionary order.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    public void writeList(String key, Profile modules, boolean sorted) throws IOException
+    {
+        beginList(key);
+        if(sorted)
+        {
+            for(String code : modules.getSortedModuleCodes())
+                writeModule(code);
+        }
+        else
+        {//Codes are taken straight from the dictionary, so no intermediate list is built.
+            ModuleDictionary dictionary = modules.getDictionary();
+            for(int id = modules.nextModule(0); id >= 0; id = modules.nextModule(id + 1))
+                writeModule(dictionary.codeOf(id));
+        }
+        endList();
+    }
+
+    /**
+     * Starts a list of modules under the given key, to be followed by calls to writeModule and then endList.
+     * @param key - name of the list, such as EnabledList.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    public void beginList(String key) throws IOException
+    {
+        writeKey(key);
+        out.write('[');
+        firstModule = true;
+    }
+
+    /**
+     * Writes a single module code to the list currently being written.
+     * @param code - module code to write.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    public void writeModule(String code) throws IOException
+    {
+        if(!firstModule)
+            out.write(',');
+        firstModule = false;
+        modulesWritten++;
+        writeString(code);
+    }
+
+    /**
+     * Finishes the list currently being written.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    public void endList() throws IOException
+    {
+        out.write(']');
+    }
+
+    /**
+     * Writes the profile's Operation.
+     * @param operation - either a Number or Boolean, written as it is, or a String, written in quotes.
+     * @throws IOException - in the event of a standard file writing error.
+     */
+    public void writeOperation(Object operation) throws IOException
+    {
+        writeKey("Operation");
+        if(operation instanceof Number || operation instanceof Boolean)
+            out.write(operation.toString());
+        else
+            writeString(String.valueOf(operation));
+    }
+
+    /**
+     * Completes the profile and moves it into place at the target location, replacing any existing file.
+     * @throws IOException - in the event that the profile cannot be flushed or moved.
+     */
+    public void commit() throws IOException
+    {
+        out.write('}');
+        Statistics.end(Statistics.Phase.SERIALISE, started); //Includes any of the profile which did not fit in the buffer being written out.
+
+        long writeStarted = Statistics.start();
+        out.flush();
+        channel.force(true);
+        long length = channel.size();
+        out.close();
+
+        try
+        {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(AtomicMoveNotSupportedException e)
+        {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+
+        Statistics.end(Statistics.Phase.WRITE, writeStarted, length);
+        Statistics.countWritten(modulesWritten);
+    }
+
+    /**
+     * Abandons the profile if it has not been committed, leaving the target untouched.
+     * @throws IOException - in the event that the temporary file cannot be removed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(committed)
+            return;
+
+        try
+        {
+            out.close();
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void writeKey(String key) throws IOException
+    {
+        if(!firstKey)
+            out.write(',');
+        firstKey = false;
+        writeString(key);
+        out.write(':');
+    }
+
+    /**
+     * Writes a JSON string, escaping any characters which may not appear in one literally.
+     * @param text - the string to write.
+     */
+    private void writeString(String text) throws IOException
+    {
+        out.write('"');
+        for(int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            switch(c)
+            {
+                case '"' : out.write("\\\"");break;
+                case '\\' : out.write("\\\\");break;
+                case '\n' : out.write("\\n");break;
+                case '\r' : out.write("\\r");break;
+                case '\t' : out.write("\\t");break;
+                default :
+                    if(c < 0x20)
+                        out.write(String.format("\\u%04x", (int) c));
+                    else
+                        out.write(c);
+                    break;
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the profiles produced by calculations on disk, so that repeating a calculation over unchanged operands copies
+ * the earlier result into place instead of reading, parsing and combining the operands again.
+ *
+ * Results are found by their key, made up of the operation and a hash of the contents of each operand, so renaming or
+ * touching an operand does not prevent a result being reused, while any change to its contents does. Operands are
+ * hashed with XXH64 over their bytes, which is far cheaper than parsing them. As with module lists, only large
+ * operands are mapped from the file, since a mapped file stays locked on some systems and could not then be replaced.
+ * The cache is kept within a size limit by removing the results which were least recently used.
+ *
+ * The cache is kept in the folder given by the results.cacheDirectory setting, and its size limit is given by the
+ * results.cacheMegabytes setting, where 0 turns the cache off.
+ *
+ * @author Daniel Burton
+ */
+public class ResultCache
+{
+    static final String DEFAULT_DIRECTORY = "resultcache";
+    static final long DEFAULT_MEGABYTES = 32;
+    private static final String EXTENSION = ".json";
+    private static final long LARGEST_OPERAND = 1L << 30;
+    private static final int RESULT_FORMAT = 3; //Raised whenever results are written differently, so older results are not reused.
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private static ResultCache shared = null;
+
+    private final File directory;
+    private final long sizeLimit;
+
+    /**
+     * Creates a cache in the given folder, which is created when the first result is stored.
+     * @param directory - folder to keep results in.
+     * @param sizeLimit - number of bytes the results may occupy, or 0 to store nothing.
+     */
+    public ResultCache(File directory, long sizeLimit)
+    {
+        this.directory = directory;
+        this.sizeLimit = sizeLimit;
+    }
+
+    /**
+     * Obtains the cache described by the settings, shared by every calculation during this session.
+     * @return the session-wide ResultCache.
+     */
+    public static synchronized ResultCache getShared()
+    {
+        if(shared == null)
+        {
+            File directory = new File(Settings.getString("results.cacheDirectory", DEFAULT_DIRECTORY));
+            shared = new ResultCache(directory, Settings.getLong("results.cacheMegabytes", DEFAULT_MEGABYTES) * 1024 * 1024);
+        }
+
+        return shared;
+    }
+
+    /**
+     * Creates the key of a calculation from its operation and the contents of its operands.
+     * @param operation - description of everything other than the operands which affects the result, such as the
+     *                  operation and whether its modules are sorted.
+     * @param operands - the calculation's operands, in order.
+     * @return the key, or null if the cache is turned off or an operand cannot be cached (because it is not a JSON
+     *         profile on disk, or is too large to map).
+     * @throws IOException - in the event that an operand cannot be read.
+     */
+    public String keyFor(String operation, List<File> operands) throws IOException
+    {
+        if(sizeLimit <= 0)
+            return null;
+
+        StringBuilder key = new StringBuilder(RESULT_FORMAT + " " + operation);
+        File mappings = ModuleMappings.getCacheFile();
+        if(mappings.isFile())
+        {//Operands with only a disabled list, complements and normalised results all depend on the repository's modules.
+            key.append(":modules/").append(Long.toHexString(hash(mappings)));
+        }
+
+        for(File operand : operands)
+        {
+            if(!operand.isFile() || BinaryProfile.isBinary(operand) || operand.length() > LARGEST_OPERAND)
+                return null;
+
+            key.append(':').append(operand.length()).append('/').append(Long.toHexString(hash(operand)));
+        }
+
+        byte[] text = key.toString().getBytes(StandardCharsets.UTF_8);
+        return String.format("%016x", hash(ByteBuffer.wrap(text), 0));
+    }
+
+    /**
+     * Copies a stored result to the target location, if there is one for the key. As with written profiles, the
+     * target is only replaced once the copy is complete.
+     * @param key - the calculation's key.
+     * @param targetFile - file location to store the profile.
+     * @return true if a result was found and copied.
+     * @throws IOException - in the event of a standard I/O error.
+     */
+    public synchronized boolean copyTo(String key, File targetFile) throws IOException
+    {
+        File entry = new File(directory, key + EXTENSION);
+        if(!entry.isFile())
+            return false;
+
+        long started = Statistics.start();
+        File absolute = targetFile.getAbsoluteFile();
+        Path temporary = ProfileWriter.temporaryFor(absolute.toPath());
+        try
+        {
+            Files.copy(entry.toPath(), temporary);
+            move(temporary, absolute.toPath());
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary);
+        }
+        entry.setLastModified(System.currentTimeMillis()); //Marks the result as recently used.
+        Statistics.end(Statistics.Phase.WRITE, started, entry.length());
+
+        return true;
+    }
+
+    /**
+     * Stores a profile which has just been written as the result of a calculation, removing the least recently used
+     * results if the cache has grown past its size limit.
+     * @param key - the calculation's key.
+     * @param result - the profile written by the calculation.
+     * @throws IOException - in the event of a standard I/O error.
+     */
+    public synchronized void store(String key, File result) throws IOException
+    {
+        if(sizeLimit <= 0 || result.length() > sizeLimit)
+            return;
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create the result cache directory " + directory.getPath() + ".");
+
+        Path entry = new File(directory, key + EXTENSION).toPath();
+        Path temporary = ProfileWriter.temporaryFor(entry);
+        try
+        {
+            Files.copy(result.toPath(), temporary);
+            move(temporary, entry);
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary);
+        }
+
+        evict();
+    }
+
+    /**
+     * Removes the least recently used results until the cache is within its size limit.
+     */
+    private void evict()
+    {
+        File[] entries = directory.listFiles((parent, name) -> name.endsWith(EXTENSION));
+        if(entries == null)
+            return;
+
+        long size = 0;
+        for(File entry : entries)
+            size += entry.length();
+        if(size <= sizeLimit)
+            return;
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for(File entry : entries)
+        {
+            if(size <= sizeLimit)
+                break;
+
+            long length = entry.length();
+            if(entry.delete())
+                size -= length;
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException
+    {
+        try
+        {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(AtomicMoveNotSupportedException e)
+        {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Hashes the contents of a file. Small files are read into memory, while larger files are mapped rather than
+     * copied through a buffer.
+     * @param file - file to hash.
+     * @return the XXH64 hash of the file's contents.
+     * @throws IOException - in the event that the file cannot be read.
+     */
+    static long hash(File file) throws IOException
+    {
+        long started = Statistics.start();
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            ByteBuffer contents;
+            if(size > ModuleListReader.MAPPING_THRESHOLD)
+            {
+                contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            else
+            {
+                contents = ByteBuffer.allocate((int) size);
+                while(contents.hasRemaining())
+                {
+                    if(channel.read(contents, contents.position()) < 0)
+                        throw new IOException(file.getPath() + " changed while it was being read.");
+                }
+                contents.flip();
+            }
+
+            long hash = hash(contents, 0);
+            Statistics.end(Statistics.Phase.READ, started, size);
+            return hash;
+        }
+    }
+
+    /**
+     * Calculates the XXH64 hash of the remaining bytes of a buffer, without changing the buffer's position.
+     * @param buffer - bytes to hash.
+     * @param seed - seed of the hash.
+     * @return the 64-bit hash.
+     */
+    static long hash(ByteBuffer buffer, long seed)
+    {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int position = buffer.position();
+        int end = buffer.limit();
+        int length = end - position;
+        long hash;
+
+        if(length >= 32)
+        {//Four lanes each take a word of every 32-byte stripe.
+            long v1 = seed + PRIME1 + PRIME2;
+            long v2 = seed + PRIME2;
+            long v3 = seed;
+            long v4 = seed - PRIME1;
+            for(int limit = end - 32; position <= limit; position += 32)
+            {
+                v1 = round(v1, buffer.getLong(position));
+                v2 = round(v2, buffer.getLong(position + 8));
+                v3 = round(v3, buffer.getLong(position + 16));
+                v4 = round(v4, buffer.getLong(position + 24));
+            }
+
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        }
+        else
+        {
+            hash = seed + PRIME5;
+        }
+
+        hash += length;
+        for(; position + 8 <= end; position += 8)
+        {
+            hash ^= round(0, buffer.getLong(position));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if(position + 4 <= end)
+        {
+            hash ^= (buffer.getInt(position) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            position += 4;
+        }
+        for(; position < end; position++)
+        {
+            hash ^= (buffer.get(position) & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long accumulator, long input)
+    {
+        accumulator += input * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME1;
+    }
+
+    private static long mergeRound(long accumulator, long value)
+    {
+        accumulator ^= round(0, value);
+        return accumulator * PRIME1 + PRIME4;
+    }
+}
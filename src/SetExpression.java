@@ -0,0 +1,371 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Parses and evaluates compound set expressions over profiles, such as "(teamA | teamB) - (alice & bob)".
+ *
+ * Operators may be written either as the mathematical union, intersection and minus signs or in ASCII (| or +, &, -).
+ * Intersection binds more tightly than union and difference, which are evaluated left to right. Each operand names a
+ * profile (the .json or .kpcp extension may be left off) or a directory of profiles, which stands for the union of the
+ * profiles inside it. Operands containing spaces may be enclosed in single quotes. Within a batch script, an operand
+ * may also be the name of an earlier result, such as $practice.
+ *
+ * Evaluation is planned so that no work is repeated: each operand file is parsed once, equivalent subexpressions
+ * are computed once, intersections are evaluated smallest operand first, and evaluation stops early wherever a
+ * result is already known to be empty.
+ *
+ * @author Daniel Burton
+ */
+public class SetExpression
+{
+    private static final int ESTIMATED_BYTES_PER_MODULE = 24;
+
+    private final ProfileCalculations calculations;
+    private final boolean verboseOutput;
+    private final HashMap<String, Profile> results = new HashMap<String, Profile>();
+
+    private String text = null;
+    private int position = 0;
+
+    /**
+     * Creates an evaluator for set expressions.
+     * @param calculations - the calculation whose profile reading should be used for each operand.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    public SetExpression(ProfileCalculations calculations, boolean verboseOutput)
+    {
+        this.calculations = calculations;
+        this.verboseOutput = verboseOutput;
+    }
+
+    /**
+     * Parses an expression into a tree of nodes.
+     * @param expression - the expression to parse.
+     * @return the root ExpressionNode of the expression.
+     * @throws ArgumentException - in the event that the expression is badly formed or names a missing profile.
+     * @throws IOException - in the event that an operand's location cannot be resolved.
+     */
+    public ExpressionNode parse(String expression) throws ArgumentException, IOException
+    {
+        text = expression;
+        position = 0;
+
+        ExpressionNode root = parseExpression();
+        skipWhitespace();
+        if(position < text.length())
+            throw new ArgumentException("Unexpected character '" + text.charAt(position) + "' in expression at position " + (position + 1) + ".");
+
+        return root;
+    }
+
+    /**
+     * Evaluates a parsed expression, reusing the result of any equivalent subexpression evaluated previously.
+     * The Profile returned may be shared with other subexpressions, so it must not be modified.
+     * @param node - root of the expression to evaluate.
+     * @return a Profile containing the result of the expression.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a provided profile JSON cannot be parsed.
+     */
+    public Profile evaluate(ExpressionNode node) throws IOException, ParseException
+    {
+        Profile result = results.get(node.getKey());
+        if(result != null)
+        {
+            if(verboseOutput && node.getOperator() != ExpressionNode.Operator.OPERAND)
+                System.out.println("Reusing result of subexpression " + node.getKey());
+            return result;
+        }
+
+        List<ExpressionNode> children = node.getChildren();
+        switch(node.getOperator())
+        {
+            case OPERAND :
+                result = readOperand(node.getOperand());
+                break;
+            case UNION :
+                result = new Profile();
+                for(ExpressionNode child : children)
+                {
+                    Profile operand = evaluate(child);
+                    long started = Statistics.start();
+                    result.addAll(operand);
+                    Statistics.end(Statistics.Phase.OPERATION, started);
+                }
+                break;
+            case INTERSECTION :
+                result = evaluateIntersection(children);
+                break;
+            default :
+                Profile left = evaluate(children.get(0));
+                if(left.isEmpty())
+                {//Nothing can be removed from an empty profile, so the right-hand side need not be evaluated.
+                    result = left;
+                }
+                else
+                {
+                    Profile right = evaluate(children.get(1));
+                    long started = Statistics.start();
+                    result = left.copy();
+                    result.removeAll(right);
+                    Statistics.end(Statistics.Phase.OPERATION, started);
+                }
+                break;
+        }
+
+        results.put(node.getKey(), result);
+        return result;
+    }
+
+    /**
+     * Evaluates an intersection, starting from the operand expected to be smallest and stopping once it is empty.
+     * @param children - operands of the intersection.
+     * @return a Profile containing the intersection of every operand.
+     */
+    private Profile evaluateIntersection(List<ExpressionNode> children) throws IOException, ParseException
+    {
+        ArrayList<ExpressionNode> ordered = new ArrayList<ExpressionNode>(children);
+        final HashMap<ExpressionNode, Long> estimates = new HashMap<ExpressionNode, Long>();
+        for(ExpressionNode child : ordered)
+            estimates.put(child, estimateSize(child));
+        ordered.sort((a, b) -> Long.compare(estimates.get(a), estimates.get(b)));
+
+        Profile result = evaluate(ordered.get(0)).copy();
+        for(ExpressionNode child : ordered.subList(1, ordered.size()))
+        {
+            if(result.isEmpty())
+            {
+                if(verboseOutput)
+                    System.out.println("Intersection is already empty, skipping remaining operands.");
+                break;
+            }
+            Profile operand = evaluate(child);
+            long started = Statistics.start();
+            result.retainAll(operand);
+            Statistics.end(Statistics.Phase.OPERATION, started);
+        }
+
+        return result;
+    }
+
+    /**
+     * Estimates the number of modules a subexpression will produce, without reading any further profiles.
+     * Results which have already been computed are used exactly, while unread profiles are estimated from their size.
+     * @param node - subexpression to estimate.
+     * @return the estimated number of modules.
+     */
+    private long estimateSize(ExpressionNode node)
+    {
+        Profile known = results.get(node.getKey());
+        if(known != null)
+            return known.size();
+
+        long estimate = 0;
+        switch(node.getOperator())
+        {
+            case OPERAND :
+                if(node.getOperand().isDirectory())
+                {
+                    for(File profile : ProfileCalculations.listProfiles(node.getOperand()))
+                        estimate = Math.max(estimate, estimateModules(profile));
+                }
+                else
+                {
+                    estimate = estimateModules(node.getOperand());
+                }
+                return estimate;
+            case UNION :
+                for(ExpressionNode child : node.getChildren())
+                    estimate += estimateSize(child);
+                return estimate;
+            case INTERSECTION :
+                estimate = Long.MAX_VALUE;
+                for(ExpressionNode child : node.getChildren())
+                    estimate = Math.min(estimate, estimateSize(child));
+                return estimate;
+            default :
+                return estimateSize(node.getChildren().get(0));
+        }
+    }
+
+    /**
+     * Estimates the number of modules in an unread profile from its size on disk.
+     * @param profile - JSON or binary profile.
+     * @return the estimated number of modules.
+     */
+    private static long estimateModules(File profile)
+    {
+        if(BinaryProfile.isBinary(profile))
+            return profile.length(); //Most modules take a single byte in a binary profile.
+
+        return profile.length() / ESTIMATED_BYTES_PER_MODULE;
+    }
+
+    /**
+     * Reads an operand, which may be a single profile or a directory of profiles to be combined by union.
+     * Profiles are cached by location, so a profile named both directly and within a directory is only read once.
+     * @param operand - canonical location of the profile or directory.
+     * @return a Profile containing the operand's enabled modules.
+     */
+    private Profile readOperand(File operand) throws IOException, ParseException
+    {
+        if(!operand.isDirectory())
+        {
+            if(verboseOutput)
+                System.out.println("Reading profile: " + operand.getPath());
+            return calculations.readProfile(operand);
+        }
+
+        Profile result = new Profile();
+        for(File profile : ProfileCalculations.listProfiles(operand))
+        {
+            Profile member = evaluate(new ExpressionNode(profile.getCanonicalFile()));
+            long started = Statistics.start();
+            result.addAll(member);
+            Statistics.end(Statistics.Phase.OPERATION, started);
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses a sequence of terms joined by union or difference operators.
+     * @return the node representing the sequence.
+     */
+    private ExpressionNode parseExpression() throws ArgumentException, IOException
+    {
+        ExpressionNode node = parseTerm();
+        while(true)
+        {
+            skipWhitespace();
+            if(position >= text.length())
+                return node;
+
+            char c = text.charAt(position);
+            if(c == '\u222A' || c == '|' || c == '+')
+            {
+                position++;
+                node = new ExpressionNode(ExpressionNode.Operator.UNION, node, parseTerm());
+            }
+            else if(c == '\u2212' || c == '-')
+            {
+                position++;
+                node = new ExpressionNode(ExpressionNode.Operator.DIFFERENCE, node, parseTerm());
+            }
+            else
+            {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Parses a sequence of factors joined by intersection operators.
+     * @return the node representing the sequence.
+     */
+    private ExpressionNode parseTerm() throws ArgumentException, IOException
+    {
+        ExpressionNode node = parseFactor();
+        while(true)
+        {
+            skipWhitespace();
+            if(position < text.length() && (text.charAt(position) == '\u2229' || text.charAt(position) == '&'))
+            {
+                position++;
+                node = new ExpressionNode(ExpressionNode.Operator.INTERSECTION, node, parseFactor());
+            }
+            else
+            {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Parses either a bracketed expression or a single operand.
+     * @return the node representing the factor.
+     */
+    private ExpressionNode parseFactor() throws ArgumentException, IOException
+    {
+        skipWhitespace();
+        if(position >= text.length())
+            throw new ArgumentException("Expression ended unexpectedly.");
+
+        if(text.charAt(position) == '(')
+        {
+            position++;
+            ExpressionNode node = parseExpression();
+            skipWhitespace();
+            if(position >= text.length() || text.charAt(position) != ')')
+                throw new ArgumentException("Missing closing bracket in expression.");
+            position++;
+            return node;
+        }
+
+        String name;
+        if(text.charAt(position) == '\'')
+        {//Quoted operands may contain spaces and operator characters.
+            int end = text.indexOf('\'', position + 1);
+            if(end < 0)
+                throw new ArgumentException("Missing closing quote in expression.");
+            name = text.substring(position + 1, end);
+            position = end + 1;
+        }
+        else
+        {
+            int start = position;
+            while(position < text.length() && !isOperandTerminator(text.charAt(position)))
+                position++;
+            name = text.substring(start, position);
+        }
+
+        if(name.isEmpty())
+            throw new ArgumentException("Expected a profile name at position " + (position + 1) + " of expression.");
+
+        return new ExpressionNode(resolveOperand(name));
+    }
+
+    /**
+     * Finds the profile or directory an operand name refers to.
+     * @param name - operand as written in the expression.
+     * @return the canonical location of the operand.
+     * @throws ArgumentException - if no profile or directory with that name exists.
+     */
+    private File resolveOperand(String name) throws ArgumentException, IOException
+    {
+        if(name.startsWith("$"))
+            return new File(name); //Named results are supplied by the calculation's profile source rather than read from disk.
+
+        File operand = new File(name);
+        if(!operand.exists() && new File(name + ".json").isFile())
+            operand = new File(name + ".json");
+        else if(!operand.exists() && new File(name + "." + BinaryProfile.EXTENSION).isFile())
+            operand = new File(name + "." + BinaryProfile.EXTENSION);
+
+        if(!operand.exists())
+            throw new ArgumentException("Unable to find a profile or directory named " + name + ".");
+
+        return operand.getCanonicalFile();
+    }
+
+    /**
+     * Establishes whether a character ends an unquoted operand. Hyphens only act as operators between spaces or
+     * brackets, so that they may still appear within profile names.
+     * @param c - character to check.
+     * @return true if the character cannot be part of an unquoted operand.
+     */
+    private static boolean isOperandTerminator(char c)
+    {
+        return Character.isWhitespace(c) || c == '(' || c == ')' || c == '\u222A' || c == '\u2229' || c == '\u2212' || c == '|' || c == '&';
+    }
+
+    private void skipWhitespace()
+    {
+        while(position < text.length() && Character.isWhitespace(text.charAt(position)))
+            position++;
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Holds user-configurable settings for the calculator, read from kpc.properties in the program's folder.
+ * Every setting has a sensible default, so the file only needs to contain the settings a user wishes to change.
+ *
+ * @author Daniel Burton
+ */
+public class Settings
+{
+    private static final String SETTINGS_FILE = "kpc.properties";
+
+    private static Properties properties = null;
+
+    /**
+     * Obtains a text setting.
+     * @param key - name of the setting.
+     * @param defaultValue - value to use if the setting is not present.
+     * @return the value of the setting.
+     */
+    public static String getString(String key, String defaultValue)
+    {
+        String value = getProperties().getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Obtains a whole-number setting. Values which are not numbers are ignored in favour of the default.
+     * @param key - name of the setting.
+     * @param defaultValue - value to use if the setting is not present or not a number.
+     * @return the value of the setting.
+     */
+    public static long getLong(String key, long defaultValue)
+    {
+        try
+        {
+            return Long.parseLong(getString(key, Long.toString(defaultValue)));
+        }
+        catch(NumberFormatException e)
+        {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Obtains a true/false setting.
+     * @param key - name of the setting.
+     * @param defaultValue - value to use if the setting is not present.
+     * @return the value of the setting.
+     */
+    public static boolean getBoolean(String key, boolean defaultValue)
+    {
+        return Boolean.parseBoolean(getString(key, Boolean.toString(defaultValue)));
+    }
+
+    /**
+     * Loads the settings file the first time a setting is requested.
+     * @return Properties containing every setting in the settings file.
+     */
+    private static synchronized Properties getProperties()
+    {
+        if(properties == null)
+        {
+            properties = new Properties();
+            File settingsFile = new File(SETTINGS_FILE);
+
+            if(settingsFile.isFile())
+            {
+                try(InputStream in = new FileInputStream(settingsFile))
+                {
+                    properties.load(in);
+                }
+                catch(IOException e)
+                {
+                    System.out.println("Unable to read " + SETTINGS_FILE + ", default settings will be used.");
+                }
+            }
+        }
+
+        return properties;
+    }
+}
@@ -0,0 +1,243 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Finds similar profiles within a directory, measuring similarity as the Jaccard similarity of their enabled
+ * modules: the number of modules two profiles share divided by the number enabled by either.
+ *
+ * Candidates are found from the directory's MinHash sketches using locality-sensitive hashing: each sketch is cut
+ * into bands of a few positions, and only profiles whose sketches agree completely on at least one band are
+ * considered, which very similar profiles almost always do and dissimilar ones rarely do. The best candidates are
+ * then read and their exact similarity calculated, so every similarity reported is exact.
+ *
+ * @author Daniel Burton
+ */
+public class SimilaritySearch
+{
+    private static final double CANDIDATE_MARGIN = 0.1;
+
+    private final File directory;
+    private final ProfileSource profileSource;
+    private final boolean verboseOutput;
+
+    /**
+     * Creates a search over a directory of profiles.
+     * @param directory - directory of profiles to search.
+     * @param profileSource - source used to read profiles, or null to read them from disk directly.
+     * @param verboseOutput - more process details are shown to the user if true.
+     */
+    public SimilaritySearch(File directory, ProfileSource profileSource, boolean verboseOutput)
+    {
+        this.directory = directory;
+        this.profileSource = profileSource;
+        this.verboseOutput = verboseOutput;
+    }
+
+    /**
+     * Finds the profiles in the directory most similar to a given profile, which need not be in the directory.
+     * @param profile - the profile to compare against.
+     * @param count - the number of profiles to find.
+     * @return up to count matches, most similar first.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     */
+    public ArrayList<Match> nearest(File profile, int count) throws IOException, ParseException
+    {
+        ArrayList<ProfileSketches.Sketch> sketches = ProfileSketches.open(directory, profileSource, verboseOutput).getSketches();
+        Profile target = read(profile);
+        int[] targetSketch = ProfileSketches.sketch(target);
+        String ownName = profile.getCanonicalFile().getParentFile().equals(directory.getCanonicalFile()) ? profile.getName() : null;
+
+        int rows = 2; //Loose bands, so that anything with a reasonable similarity is a candidate.
+        HashSet<Integer> candidates = new HashSet<Integer>();
+        for(int i = 0; i < sketches.size(); i++)
+        {
+            if(sharesBand(targetSketch, sketches.get(i).getMinimums(), rows))
+                candidates.add(i);
+        }
+        if(candidates.size() < count)
+        {//Too few profiles are similar enough to share a band, so every profile is ranked.
+            for(int i = 0; i < sketches.size(); i++)
+                candidates.add(i);
+        }
+
+        ArrayList<Match> estimated = new ArrayList<Match>();
+        for(int i : candidates)
+        {
+            ProfileSketches.Sketch sketch = sketches.get(i);
+            if(sketch.getSize() > 0 && !sketch.getName().equals(ownName))
+                estimated.add(new Match(sketch.getName(), null, ProfileSketches.estimate(targetSketch, sketch.getMinimums())));
+        }
+        estimated.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+
+        ArrayList<Match> exact = new ArrayList<Match>();
+        for(Match match : estimated.subList(0, Math.min(estimated.size(), count * 2 + 10)))
+        {//Some more candidates than needed are checked exactly, as the estimates are only approximate.
+            double similarity = jaccard(target, read(new File(directory, match.first)));
+            exact.add(new Match(match.first, null, similarity));
+        }
+        exact.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+
+        return new ArrayList<Match>(exact.subList(0, Math.min(exact.size(), count)));
+    }
+
+    /**
+     * Finds every pair of profiles in the directory whose similarity is at least a threshold.
+     * @param threshold - the lowest similarity to report, between 0 and 1.
+     * @return the matching pairs, most similar first.
+     * @throws IOException - in the event of a standard I/O error.
+     * @throws ParseException - in the event that a profile cannot be parsed.
+     */
+    public ArrayList<Match> pairsAbove(double threshold) throws IOException, ParseException
+    {
+        ArrayList<ProfileSketches.Sketch> sketches = ProfileSketches.open(directory, profileSource, verboseOutput).getSketches();
+        int rows = rowsFor(threshold);
+        int bands = ProfileSketches.SKETCH_SIZE / rows;
+
+        HashSet<Long> candidates = new HashSet<Long>();
+        for(int band = 0; band < bands; band++)
+        {
+            HashMap<Long, List<Integer>> buckets = new HashMap<Long, List<Integer>>();
+            for(int i = 0; i < sketches.size(); i++)
+            {
+                if(sketches.get(i).getSize() == 0)
+                    continue;
+
+                List<Integer> bucket = buckets.computeIfAbsent(bandKey(sketches.get(i).getMinimums(), band, rows), key -> new ArrayList<Integer>());
+                for(int other : bucket)
+                    candidates.add(((long) other << 32) | i);
+                bucket.add(i);
+            }
+        }
+
+        if(verboseOutput)
+            System.out.println(candidates.size() + " candidate pairs from " + bands + " bands of " + rows);
+
+        ArrayList<Match> matches = new ArrayList<Match>();
+        for(long pair : candidates)
+        {
+            ProfileSketches.Sketch first = sketches.get((int) (pair >>> 32));
+            ProfileSketches.Sketch second = sketches.get((int) pair);
+            if(ProfileSketches.estimate(first.getMinimums(), second.getMinimums()) < threshold - CANDIDATE_MARGIN)
+                continue;
+
+            double similarity = jaccard(read(new File(directory, first.getName())), read(new File(directory, second.getName())));
+            if(similarity >= threshold)
+                matches.add(new Match(first.getName(), second.getName(), similarity));
+        }
+        matches.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+
+        return matches;
+    }
+
+    /**
+     * Calculates the exact Jaccard similarity of two profiles.
+     * @param first - the first profile.
+     * @param second - the second profile.
+     * @return the number of modules in common divided by the number enabled by either, or 0 if both are empty.
+     */
+    public static double jaccard(Profile first, Profile second)
+    {
+        int common = first.countCommon(second);
+        int either = first.size() + second.size() - common;
+
+        return either == 0 ? 0 : common / (double) either;
+    }
+
+    /**
+     * Chooses how many positions make up each band, so that pairs at the threshold are almost certain to share a
+     * band while far less similar pairs rarely do. With b bands of r positions, pairs become likely candidates at
+     * a similarity of about (1/b)^(1/r), which is kept a margin below the threshold.
+     * @param threshold - the lowest similarity to be found.
+     * @return the number of positions per band.
+     */
+    private static int rowsFor(double threshold)
+    {
+        int rows = 1;
+        while(rows * 2 <= ProfileSketches.SKETCH_SIZE)
+        {
+            int bands = ProfileSketches.SKETCH_SIZE / (rows * 2);
+            if(Math.pow(1.0 / bands, 1.0 / (rows * 2)) > threshold - CANDIDATE_MARGIN)
+                break;
+            rows *= 2;
+        }
+
+        return rows;
+    }
+
+    private static boolean sharesBand(int[] first, int[] second, int rows)
+    {
+        for(int start = 0; start < ProfileSketches.SKETCH_SIZE; start += rows)
+        {
+            if(Arrays.equals(Arrays.copyOfRange(first, start, start + rows), Arrays.copyOfRange(second, start, start + rows)))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static long bandKey(int[] minimums, int band, int rows)
+    {
+        long key = band;
+        for(int i = band * rows; i < (band + 1) * rows; i++)
+            key = key * 0x100000001B3L + minimums[i];
+
+        return key;
+    }
+
+    private Profile read(File profile) throws IOException, ParseException
+    {
+        return profileSource == null ? ProfileCalculations.readProfileFile(profile) : profileSource.read(profile);
+    }
+
+    /**
+     * A profile, or pair of profiles, along with their similarity.
+     */
+    public static final class Match
+    {
+        private final String first;
+        private final String second;
+        private final double similarity;
+
+        private Match(String first, String second, double similarity)
+        {
+            this.first = first;
+            this.second = second;
+            this.similarity = similarity;
+        }
+
+        /**
+         * Obtains the name of the matching profile, or the first profile of a matching pair.
+         * @return a profile's file name.
+         */
+        public String getFirst()
+        {
+            return first;
+        }
+
+        /**
+         * Obtains the name of the second profile of a matching pair.
+         * @return a profile's file name, or null if the match is a single profile.
+         */
+        public String getSecond()
+        {
+            return second;
+        }
+
+        /**
+         * Obtains the exact similarity of the match.
+         * @return the Jaccard similarity, between 0 and 1.
+         */
+        public double getSimilarity()
+        {
+            return similarity;
+        }
+    }
+}
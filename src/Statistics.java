@@ -0,0 +1,425 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times each phase of the calculator's work (reading files, parsing them, resolving module names, set operations,
+ * serialising profiles and writing files) and counts what passes through it, so that it is clear where the time
+ * goes in a command without attaching a profiler.
+ *
+ * Timings and counts are only collected while a command run with -stats is in progress, and may then be printed as a
+ * table or as JSON. Phases are also emitted as "kpc.Phase" events to Java Flight Recorder whenever a recording is
+ * running, in which case they are recorded whether or not -stats was given. JFR events are created through JFR's
+ * dynamic event API, so the calculator still runs on Java versions without JFR, and the event type is only registered
+ * once a recording has started, so that JFR is not loaded otherwise. A phase's event is committed once the phase
+ * has ended, since reading and parsing are interleaved and timed apart, so its time field holds how long the phase
+ * took and the event's own start and duration only mark when it ended. Every figure may be collected from several
+ * threads at once, such as by parallel unions.
+ *
+ * @author Daniel Burton
+ */
+public class Statistics
+{
+    /**
+     * The phases time is spent in.
+     */
+    public enum Phase
+    {
+        READ("File read", "read"), PARSE("Parse", "parse"), RESOLVE("Name resolution", "resolve"), OPERATION("Set operation", "operation"),
+        SERIALISE("Serialisation", "serialise"), WRITE("File write", "write");
+
+        private final String label;
+        private final String key;
+
+        Phase(String label, String key)
+        {
+            this.label = label;
+            this.key = key;
+        }
+    }
+
+    /**
+     * The quantities counted alongside the phases.
+     */
+    public enum Counter
+    {
+        PROFILES_READ("Profiles read", "profilesRead"), MODULES_READ("Modules read", "modulesRead"),
+        PROFILES_WRITTEN("Profiles written", "profilesWritten"), MODULES_WRITTEN("Modules written", "modulesWritten"),
+        NAMES_RESOLVED("Names resolved", "namesResolved"), NAMES_UNRESOLVED("Names unresolved", "namesUnresolved"),
+        NAMES_CORRECTED("Names corrected", "namesCorrected"),
+        PROFILE_MEMORY("Profile memory (bytes, estimated)", "profileMemoryBytes");
+
+        private final String label;
+        private final String key;
+
+        Counter(String label, String key)
+        {
+            this.label = label;
+            this.key = key;
+        }
+    }
+
+    private static final LongAdder[] CALLS = adders(Phase.values().length);
+    private static final LongAdder[] NANOS = adders(Phase.values().length);
+    private static final LongAdder[] BYTES = adders(Phase.values().length);
+    private static final LongAdder[] COUNTS = adders(Counter.values().length);
+    private static volatile boolean collecting = false;
+    private static long startedAt = 0;
+    private static long allocatedAtStart = -1;
+
+    /**
+     * Clears every figure and starts collecting them, such as at the start of a command run with -stats.
+     */
+    public static synchronized void begin()
+    {
+        for(LongAdder[] adders : Arrays.asList(CALLS, NANOS, BYTES, COUNTS))
+        {
+            for(LongAdder adder : adders)
+                adder.reset();
+        }
+
+        startedAt = System.nanoTime();
+        allocatedAtStart = allocatedByThisThread();
+        collecting = true;
+    }
+
+    /**
+     * Stops collecting figures, leaving those collected so far to be printed.
+     */
+    public static synchronized void finish()
+    {
+        collecting = false;
+    }
+
+    /**
+     * Establishes whether figures are being collected.
+     * @return true if a command run with -stats is in progress.
+     */
+    public static boolean isCollecting()
+    {
+        return collecting;
+    }
+
+    /**
+     * Marks the start of a phase.
+     * @return the time to pass to end once the phase is complete.
+     */
+    public static long start()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a phase which started at the given time and has just ended.
+     * @param phase - the phase which ended.
+     * @param start - the time returned by start when the phase began.
+     */
+    public static void end(Phase phase, long start)
+    {
+        record(phase, System.nanoTime() - start, 0);
+    }
+
+    /**
+     * Records a phase which started at the given time and has just ended, having moved a number of bytes.
+     * @param phase - the phase which ended.
+     * @param start - the time returned by start when the phase began.
+     * @param bytes - the number of bytes read or written during the phase.
+     */
+    public static void end(Phase phase, long start, long bytes)
+    {
+        record(phase, System.nanoTime() - start, bytes);
+    }
+
+    /**
+     * Records time spent in a phase which was measured separately, such as time spent reading while parsing.
+     * @param phase - the phase the time was spent in.
+     * @param nanos - the time spent, in nanoseconds.
+     * @param bytes - the number of bytes read or written during the phase.
+     */
+    public static void record(Phase phase, long nanos, long bytes)
+    {
+        if(collecting)
+        {
+            CALLS[phase.ordinal()].increment();
+            NANOS[phase.ordinal()].add(nanos);
+            BYTES[phase.ordinal()].add(bytes);
+        }
+
+        FlightRecorderEvents.emit(phase, nanos, bytes);
+    }
+
+    /**
+     * Adds to one of the counters.
+     * @param counter - the counter to add to.
+     * @param amount - the amount to add.
+     */
+    public static void count(Counter counter, long amount)
+    {
+        if(collecting)
+            COUNTS[counter.ordinal()].add(amount);
+    }
+
+    /**
+     * Records that a profile has been read, counting its modules and its estimated size in memory.
+     * @param profile - the profile which was read.
+     */
+    public static void countRead(Profile profile)
+    {
+        if(collecting)
+        {
+            COUNTS[Counter.PROFILES_READ.ordinal()].increment();
+            COUNTS[Counter.MODULES_READ.ordinal()].add(profile.size());
+            COUNTS[Counter.PROFILE_MEMORY.ordinal()].add(profile.estimateMemory());
+        }
+    }
+
+    /**
+     * Records that a profile has been written, counting its modules.
+     * @param modules - the number of modules written.
+     */
+    public static void countWritten(int modules)
+    {
+        if(collecting)
+        {
+            COUNTS[Counter.PROFILES_WRITTEN.ordinal()].increment();
+            COUNTS[Counter.MODULES_WRITTEN.ordinal()].add(modules);
+        }
+    }
+
+    /**
+     * Prints the figures collected as a table.
+     */
+    public static synchronized void printSummary()
+    {
+        System.out.println(String.format("%-16s %8s %12s %14s", "Phase", "Calls", "Time (ms)", "Bytes"));
+        for(Phase phase : Phase.values())
+        {
+            int i = phase.ordinal();
+            System.out.println(String.format("%-16s %8d %12.3f %14d", phase.label, CALLS[i].sum(), NANOS[i].sum() / 1e6, BYTES[i].sum()));
+        }
+
+        for(Counter counter : Counter.values())
+            System.out.println(counter.label + ": " + COUNTS[counter.ordinal()].sum());
+
+        long allocated = allocatedSinceStart();
+        if(allocated >= 0)
+            System.out.println("Allocated by the command's thread (bytes): " + allocated);
+        System.out.println(String.format("Total time (ms): %.3f", (System.nanoTime() - startedAt) / 1e6));
+    }
+
+    /**
+     * Writes the figures collected as a single JSON object. Times are in nanoseconds, and allocatedBytes is -1 if
+     * the Java version cannot measure it.
+     * @return a JSON object holding every phase and counter.
+     */
+    public static synchronized String toJson()
+    {
+        StringBuilder json = new StringBuilder("{\"totalNanos\":").append(System.nanoTime() - startedAt);
+        json.append(",\"allocatedBytes\":").append(allocatedSinceStart()).append(",\"phases\":{");
+        for(Phase phase : Phase.values())
+        {
+            int i = phase.ordinal();
+            json.append(i == 0 ? "" : ",").append('"').append(phase.key).append("\":{\"calls\":").append(CALLS[i].sum());
+            json.append(",\"nanos\":").append(NANOS[i].sum()).append(",\"bytes\":").append(BYTES[i].sum()).append('}');
+        }
+        json.append("},\"counters\":{");
+        for(Counter counter : Counter.values())
+        {
+            json.append(counter.ordinal() == 0 ? "" : ",").append('"').append(counter.key).append("\":");
+            json.append(COUNTS[counter.ordinal()].sum());
+        }
+
+        return json.append("}}").toString();
+    }
+
+    private static long allocatedSinceStart()
+    {
+        long allocated = allocatedByThisThread();
+        return allocated < 0 || allocatedAtStart < 0 ? -1 : allocated - allocatedAtStart;
+    }
+
+    /**
+     * Measures how many bytes the current thread has allocated, where the Java version supports it.
+     * @return the number of bytes allocated, or -1 if it cannot be measured.
+     */
+    private static long allocatedByThisThread()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        return allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()
+                ? allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static LongAdder[] adders(int count)
+    {
+        LongAdder[] adders = new LongAdder[count];
+        for(int i = 0; i < count; i++)
+            adders[i] = new LongAdder();
+
+        return adders;
+    }
+
+    /**
+     * Emits phases as Java Flight Recorder events, through JFR's dynamic event API so that the calculator does not
+     * depend on JFR being present. Events are created and committed together once a phase has ended, so only their
+     * time field gives the phase's duration.
+     */
+    private static final class FlightRecorderEvents
+    {
+        private static final Method RECORDER_INITIALISED = recorderInitialised();
+        private static final long CHECK_INTERVAL = 1000000000L;
+        private static volatile FlightRecorderEvents events = null;
+        private static volatile boolean registered = false;
+        private static volatile long nextCheck = 0;
+
+        private final Object factory;
+        private final Method newEvent;
+        private final Method isEnabled;
+        private final Method set;
+        private final Method commit;
+
+        private FlightRecorderEvents(Object factory, Method newEvent, Method isEnabled, Method set, Method commit)
+        {
+            this.factory = factory;
+            this.newEvent = newEvent;
+            this.isEnabled = isEnabled;
+            this.set = set;
+            this.commit = commit;
+        }
+
+        /**
+         * Emits a phase as an event if a recording has been started, registering the event type the first time. Until
+         * a recording starts, whether one has is only checked once a second.
+         * @param phase - the phase which ended.
+         * @param nanos - the time spent in the phase, in nanoseconds.
+         * @param bytes - the number of bytes read or written during the phase.
+         */
+        private static void emit(Phase phase, long nanos, long bytes)
+        {
+            if(!registered)
+            {
+                long now = System.nanoTime();
+                if(RECORDER_INITIALISED == null || now - nextCheck < 0)
+                    return;
+
+                synchronized(FlightRecorderEvents.class)
+                {
+                    if(!registered && !recording())
+                    {
+                        nextCheck = now + CHECK_INTERVAL;
+                        return;
+                    }
+                    if(!registered)
+                    {
+                        events = create();
+                        registered = true;
+                    }
+                }
+            }
+
+            FlightRecorderEvents current = events;
+            if(current != null)
+                current.commit(phase, nanos, bytes);
+        }
+
+        private static boolean recording()
+        {
+            try
+            {
+                return (Boolean) RECORDER_INITIALISED.invoke(null);
+            }
+            catch(ReflectiveOperationException e)
+            {
+                return false;
+            }
+        }
+
+        /**
+         * Finds the method telling whether JFR has been started, without starting it.
+         * @return FlightRecorder.isInitialized, or null if JFR is not available.
+         */
+        private static Method recorderInitialised()
+        {
+            try
+            {
+                return Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized");
+            }
+            catch(ReflectiveOperationException | LinkageError e)
+            {
+                return null;
+            }
+        }
+
+        /**
+         * Registers the kpc.Phase event type with JFR.
+         * @return a FlightRecorderEvents, or null if JFR is not available.
+         */
+        private static FlightRecorderEvents create()
+        {
+            try
+            {
+                Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+                Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+                Class<?> label = Class.forName("jdk.jfr.Label");
+                Class<?> description = Class.forName("jdk.jfr.Description");
+
+                List<Object> eventAnnotations = Arrays.asList(annotation.newInstance(Class.forName("jdk.jfr.Name"), "kpc.Phase"),
+                        annotation.newInstance(label, "Calculator Phase"),
+                        annotation.newInstance(description, "Committed once a phase has ended. The Time field holds how long the phase "
+                                + "took; the event's own duration does not."),
+                        annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"KTANE Profile Calculator"}));
+                List<Object> fields = Arrays.asList(field.newInstance(String.class, "phase", Collections.singletonList(annotation.newInstance(label, "Phase"))),
+                        field.newInstance(long.class, "time", Arrays.asList(annotation.newInstance(label, "Time"),
+                                annotation.newInstance(description, "Time spent in the phase."),
+                                annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"))),
+                        field.newInstance(long.class, "bytes", Arrays.asList(annotation.newInstance(label, "Bytes"),
+                                annotation.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES"))));
+
+                Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+                Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                Object factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+
+                return new FlightRecorderEvents(factory, factoryClass.getMethod("newEvent"), eventClass.getMethod("isEnabled"),
+                        eventClass.getMethod("set", int.class, Object.class), eventClass.getMethod("commit"));
+            }
+            catch(ReflectiveOperationException | LinkageError | RuntimeException e)
+            {//JFR is missing or disabled, so phases are only recorded for -stats.
+                return null;
+            }
+        }
+
+        /**
+         * Commits a phase as an event, if a recording is interested in it. The event is only created now the phase has
+         * ended, so it is not begun and its duration is close to zero; the phase's duration is carried by its time
+         * field instead.
+         * @param phase - the phase which ended.
+         * @param nanos - the time spent in the phase, in nanoseconds.
+         * @param bytes - the number of bytes read or written during the phase.
+         */
+        private void commit(Phase phase, long nanos, long bytes)
+        {
+            try
+            {
+                Object event = newEvent.invoke(factory);
+                if(!(Boolean) isEnabled.invoke(event))
+                    return;
+
+                set.invoke(event, 0, phase.label);
+                set.invoke(event, 1, nanos);
+                set.invoke(event, 2, bytes);
+                commit.invoke(event);
+            }
+            catch(ReflectiveOperationException e)
+            {//A failed event must not fail the calculation it describes.
+            }
+        }
+    }
+}
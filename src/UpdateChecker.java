@@ -0,0 +1,185 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Checks in the background whether a newer version of the calculator has been released.
+ *
+ * The check never delays the prompt: it runs on its own thread, gives up once the configured timeout has passed, and
+ * its result is remembered for a day so that the network is only consulted once a day. The following settings may
+ * be given in kpc.properties:
+ * - updates.check: false to disable the check entirely (defaults to true).
+ * - updates.timeoutSeconds: how long the check may take in total, connecting and reading together, before it is
+ *   abandoned (defaults to 5).
+ *
+ * @author Daniel Burton
+ */
+public class UpdateChecker implements Runnable
+{
+    private static final String CACHE_FILE = "updatecheck.txt";
+    private static final long CACHE_LIFETIME = 24 * 60 * 60 * 1000;
+    private static final String UP_TO_DATE = "current";
+    private static final String OUT_OF_DATE = "outdated";
+
+    private final String version;
+    private final String versionFileAddress;
+
+    /**
+     * Creates a check for a newer version than the one given.
+     * @param version - version of the running program.
+     * @param versionFileAddress - address of a file which mentions the latest version.
+     */
+    public UpdateChecker(String version, String versionFileAddress)
+    {
+        this.version = version;
+        this.versionFileAddress = versionFileAddress;
+    }
+
+    /**
+     * Starts the check on a background thread, unless update checks have been disabled.
+     */
+    public void start()
+    {
+        if(!Settings.getBoolean("updates.check", true))
+            return;
+
+        Thread thread = new Thread(this, "update-check");
+        thread.setDaemon(true); //The check must never keep the program open.
+        thread.start();
+    }
+
+    /**
+     * Performs the check, reporting a new version if one is available.
+     */
+    @Override
+    public void run()
+    {
+        File cacheFile = new File(CACHE_FILE);
+        String result = readCachedResult(cacheFile);
+
+        if(result == null)
+        {
+            try
+            {
+                result = isLatestVersion() ? UP_TO_DATE : OUT_OF_DATE;
+                Files.write(cacheFile.toPath(), Collections.singletonList(version + " " + result), StandardCharsets.UTF_8);
+            }
+            catch(IOException e)
+            {
+                System.out.println("Unable to check for updates. If this happens regularly, please report a bug.");
+                return;
+            }
+        }
+
+        if(result.equals(OUT_OF_DATE))
+        {
+            System.out.println("A new version of KTANEProfileCalculator is available! Please update here:");
+            System.out.println("      https://github.com/Burniel123/KTANEProfileCalculator/releases");
+        }
+    }
+
+    /**
+     * Obtains the result of a previous check by this version, if it was made within the last day.
+     * @param cacheFile - file the previous result was stored in.
+     * @return the previous result, or null if a new check is needed.
+     */
+    private String readCachedResult(File cacheFile)
+    {
+        if(!cacheFile.isFile() || System.currentTimeMillis() - cacheFile.lastModified() > CACHE_LIFETIME)
+            return null;
+
+        try
+        {
+            List<String> lines = Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8);
+            if(lines.isEmpty())
+                return null;
+
+            String[] parts = lines.get(0).split(" ");
+            if(parts.length != 2 || !parts[0].equals(version))
+                return null;
+
+            return parts[1];
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the version file, abandoning the attempt once the configured timeout has passed. The file is read on a
+     * thread of its own, so the timeout covers connecting and reading together however slowly the response arrives,
+     * rather than applying to each step separately.
+     * @return true if the version file mentions the running version.
+     * @throws IOException - in the event that the file cannot be read in time.
+     */
+    private boolean isLatestVersion() throws IOException
+    {
+        int timeout = (int) Math.max(1, Settings.getLong("updates.timeoutSeconds", 5)) * 1000;
+
+        URLConnection connection = new URL(versionFileAddress).openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout); //Ends the abandoned read eventually, should the timeout below be reached.
+
+        FutureTask<Boolean> fetch = new FutureTask<Boolean>(() -> mentionsVersion(connection));
+        Thread thread = new Thread(fetch, "update-check-fetch");
+        thread.setDaemon(true);
+        thread.start();
+
+        try
+        {
+            return fetch.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch(TimeoutException e)
+        {
+            fetch.cancel(true);
+            if(connection instanceof HttpURLConnection)
+                ((HttpURLConnection) connection).disconnect();
+            throw new IOException("Update check timed out.");
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Update check interrupted.", e);
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads the version file through to the end, or until the running version is found.
+     * @param connection - connection to the version file, not yet opened.
+     * @return true if the version file mentions the running version.
+     * @throws IOException - in the event that the file cannot be read.
+     */
+    private boolean mentionsVersion(URLConnection connection) throws IOException
+    {
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            String versionLine = null;
+            while((versionLine = in.readLine()) != null)
+            {
+                if(versionLine.contains(version))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+}